@@ -0,0 +1,111 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.awt.geom.Path2D;
+
+import net.schwarzbaer.java.tools.imagemapeditor.ImageMapEditor.AreaListModel;
+
+/**
+ * Outlines of areas, batched by style into one {@link Path2D} per style: {@link #unselected} and {@link #selected}.
+ * Each path is drawn with a single {@code draw} call instead of one call per area.
+ * Only used by {@link OutlineBatchingBenchmark} as the comparison to the per-area calls of the editor.<br>
+ * Coordinates are screen pixels relative to the map point ({@link #originX},{@link #originY}), so panning only translates the paths.
+ * They cover the visible map region and a margin of half its size on each side (or all areas, if the {@link AreaIndex} can't narrow them down),
+ * and are built again, if the view leaves that region or the scale changes.
+ */
+class AreaOutlines {
+	/** distance of the control points of a cubic curve, that approximates a quarter circle (as in {@link java.awt.geom.Ellipse2D}) */
+	private static final double CTRL = 0.5522847498307933;
+
+	final Path2D.Float unselected;
+	final Path2D.Float selected;
+	int originX;
+	int originY;
+
+	private boolean isValid;
+	private double scale;
+	private double minX;
+	private double minY;
+	private double maxX;
+	private double maxY;
+
+	AreaOutlines() {
+		unselected  = new Path2D.Float(Path2D.WIND_NON_ZERO, 1<<12);
+		selected    = new Path2D.Float(Path2D.WIND_NON_ZERO, 1<<8);
+		originX = 0;
+		originY = 0;
+		isValid = false;
+	}
+
+	void invalidate() {
+		isValid = false;
+	}
+
+	/**
+	 * Returns {@code true}, if the paths were built for {@code scale} and cover the map region {@code region} ({@code minX, minY, maxX, maxY}).
+	 */
+	boolean covers(double scale, double[] region) {
+		if (!isValid || this.scale!=scale) return false;
+		return minX<=region[0] && minY<=region[1] && region[2]<=maxX && region[3]<=maxY;
+	}
+
+	/**
+	 * Builds {@link #unselected} and {@link #selected} for all areas around the map region {@code region}.
+	 */
+	void build(AreaListModel model, double scale, double[] region) {
+		this.scale = scale;
+		unselected.reset();
+		selected.reset();
+
+		double marginX = (region[2]-region[0])/2;
+		double marginY = (region[3]-region[1])/2;
+		minX = region[0]-marginX; maxX = region[2]+marginX;
+		minY = region[1]-marginY; maxY = region[3]+marginY;
+		originX = (int) Math.floor(minX);
+		originY = (int) Math.floor(minY);
+		if (!model.forEachIntersecting(minX, minY, maxX, maxY, this::add)) {
+			minX = minY = Double.NEGATIVE_INFINITY;
+			maxX = maxY = Double.POSITIVE_INFINITY;
+			originX = 0;
+			originY = 0;
+			model.forEach(this::add);
+		}
+		isValid = true;
+	}
+
+	private void add(Area area, boolean isSelected) {
+		append(isSelected ? selected : unselected, area, originX, originY, scale);
+	}
+
+	private static void append(Path2D.Float path, Area area, int originX, int originY, double scale) {
+		Area.Shape shape = area.shape;
+		if (shape==null) return;
+
+		switch (shape.type) {
+
+		case Circle:
+			double cX = (shape.center.x-(double)originX)*scale;
+			double cY = (shape.center.y-(double)originY)*scale;
+			double r  = shape.radius*scale;
+			double c  = r*CTRL;
+			path.moveTo (cX+r, cY);
+			path.curveTo(cX+r, cY+c, cX+c, cY+r, cX  , cY+r);
+			path.curveTo(cX-c, cY+r, cX-r, cY+c, cX-r, cY  );
+			path.curveTo(cX-r, cY-c, cX-c, cY-r, cX  , cY-r);
+			path.curveTo(cX+c, cY-r, cX+r, cY-c, cX+r, cY  );
+			path.closePath();
+			break;
+
+		case Rect:
+			double x = (shape.corner1.x-(double)originX)*scale;
+			double y = (shape.corner1.y-(double)originY)*scale;
+			double w = (shape.corner2.x-(double)shape.corner1.x+1)*scale;
+			double h = (shape.corner2.y-(double)shape.corner1.y+1)*scale;
+			path.moveTo(x  , y  );
+			path.lineTo(x+w, y  );
+			path.lineTo(x+w, y+h);
+			path.lineTo(x  , y+h);
+			path.closePath();
+			break;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HTML export of a complete map, as done by {@code ImageMapEditor.writeToHTML}, into a temporary file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ExportBenchmark {
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	int areaCount;
+
+	private Vector<Area> areas;
+	private File file;
+
+	@Setup
+	public void setup() throws IOException {
+		areas = SyntheticMap.generate(areaCount, 42).areas;
+		file = File.createTempFile("ImageMapEditor.ExportBenchmark.", ".html");
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public long writeHTML() throws IOException {
+		HtmlExporter.write(file, true, "file:/maps/map.png", areas);
+		return file.length();
+	}
+}
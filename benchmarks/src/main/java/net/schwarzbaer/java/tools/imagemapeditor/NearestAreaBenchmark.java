@@ -0,0 +1,56 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Nearest area search, as done by {@code EditorView.setHighlightedArea} for every mouse move.
+ * The search radius is the highlight distance (30 screen pixels) at zoom 1:1.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class NearestAreaBenchmark {
+	private static final float HIGHLIGHT_RADIUS = 30.0f;
+	private static final int POINT_COUNT = 4096;
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	int areaCount;
+
+	private AreaIndex index;
+	private AreaIndex.Nearest nearest;
+	private float[] points;
+	private int next;
+
+	@Setup
+	public void setup() {
+		SyntheticMap map = SyntheticMap.generate(areaCount, 42);
+		index = new AreaIndex();
+		index.addAll(map.areas.toArray(new Area[map.areas.size()]), 0, map.areas.size());
+		nearest = new AreaIndex.Nearest();
+		points = map.generatePoints(POINT_COUNT, 7);
+		next = 0;
+	}
+
+	@Benchmark
+	public Area findNearest() {
+		int i = next;
+		next = (next+2) % points.length;
+		index.findNearest(points[i], points[i+1], HIGHLIGHT_RADIUS, nearest);
+		return nearest.area;
+	}
+}
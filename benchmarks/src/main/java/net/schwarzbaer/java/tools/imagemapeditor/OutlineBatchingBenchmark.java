@@ -0,0 +1,144 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.schwarzbaer.java.tools.imagemapeditor.ImageMapEditor.AreaListModel;
+
+/**
+ * Outlines of all visible areas drawn one by one ({@code single}, {@code EditorView.paintAreas} without level of detail)
+ * or batched into one {@link Path2D} per style ({@code batched}, {@link AreaOutlines}).<br>
+ * {@code fit} shows the whole map, {@code zoomed} shows a region at zoom 1:1 in the middle of the map.
+ * {@link #paint()} draws all outlines again (like after a change of the model or the view),
+ * {@link #paintPanned()} moves the view by a few pixels (the editor paints its layer again, batched outlines are reused).
+ * The software renderer rasterizes the whole bounding box of a path, so the batches of scattered areas are slower there.
+ * That's why the editor only has the single calls.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class OutlineBatchingBenchmark {
+	private static final int VIEW_WIDTH  = 1600;
+	private static final int VIEW_HEIGHT = 1000;
+	private static final Color COLOR_AREA = new Color(0xA0808080,true); // as in EditorView
+	private static final Color COLOR_HIGHLIGHTED_AREA = Color.WHITE;
+
+	@Param({"1000", "10000", "100000"})
+	int areaCount;
+
+	@Param({"fit", "zoomed"})
+	String view;
+
+	@Param({"batched", "single"})
+	String outlines;
+
+	private AreaListModel model;
+	private EditorView editorView;
+	private AreaOutlines areaOutlines;
+	private BufferedImage canvas;
+	private double[] viewA;
+	private double[] viewB;
+	private boolean isViewA;
+
+	@Setup
+	public void setup() {
+		SyntheticMap map = SyntheticMap.generate(areaCount, 42);
+		model = new AreaListModel(map.areas);
+		for (int i=0; i<model.getSize(); i+=100) // some selected areas, painted in a second pass
+			model.setSelected(i, true);
+
+		editorView = new EditorView(VIEW_WIDTH, VIEW_HEIGHT, new JList<>(model), model, null);
+		editorView.setSize(VIEW_WIDTH, VIEW_HEIGHT);
+		editorView.setImage(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), map.width, map.height);
+		if (!editorView.isViewStateOK()) throw new IllegalStateException("View isn't set up");
+		if (view.equals("zoomed"))
+			editorView.setView(new double[] { map.width/2.0, map.height/2.0, 1.0 });
+		editorView.setLevelOfDetail(false);
+		viewA = editorView.getView();
+		viewB = viewA.clone();
+		viewB[0] += 5/viewB[2]; // 5 px
+		isViewA = true;
+
+		areaOutlines = new AreaOutlines();
+		canvas = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	@TearDown
+	public void tearDown() {
+		editorView.releaseImage();
+	}
+
+	@Benchmark
+	public BufferedImage paint() {
+		editorView.invalidateAreaLayer();
+		areaOutlines.invalidate();
+		return paint(editorView.getView());
+	}
+
+	@Benchmark
+	public BufferedImage paintPanned() {
+		isViewA = !isViewA;
+		editorView.setView(isViewA ? viewA : viewB);
+		return paint(isViewA ? viewA : viewB);
+	}
+
+	private BufferedImage paint(double[] view) {
+		Graphics2D g2 = canvas.createGraphics();
+		g2.setClip(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+		if (outlines.equals("batched"))
+			paintBatched(g2, view);
+		else
+			editorView.paintAreas(g2, 0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+		g2.dispose();
+		return canvas;
+	}
+
+	/**
+	 * Paints the outlines like the area layer of the editor (cleared, antialiased), but with one call per style.
+	 * {@code view} is {@code centerX, centerY, scale} (see {@code EditorView.getView()}).
+	 */
+	private void paintBatched(Graphics2D g2, double[] view) {
+		double scale = view[2];
+		double halfWidth  = VIEW_WIDTH /2.0/scale;
+		double halfHeight = VIEW_HEIGHT/2.0/scale;
+		double margin = 2/scale; // line width + antialiasing
+		double[] region = { view[0]-halfWidth-margin, view[1]-halfHeight-margin, view[0]+halfWidth+margin, view[1]+halfHeight+margin };
+		if (!areaOutlines.covers(scale, region))
+			areaOutlines.build(model, scale, region);
+
+		g2.setComposite(AlphaComposite.Clear);
+		g2.fillRect(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+		g2.setComposite(AlphaComposite.SrcOver);
+		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		int originX = (int) Math.round(VIEW_WIDTH /2.0+(areaOutlines.originX-view[0])*scale);
+		int originY = (int) Math.round(VIEW_HEIGHT/2.0+(areaOutlines.originY-view[1])*scale);
+		g2.translate(originX, originY);
+		g2.setColor(COLOR_AREA);
+		g2.draw(areaOutlines.unselected);
+		g2.setColor(COLOR_HIGHLIGHTED_AREA);
+		g2.draw(areaOutlines.selected);
+	}
+}
@@ -0,0 +1,114 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.schwarzbaer.java.tools.imagemapeditor.ImageMapEditor.AreaListModel;
+
+/**
+ * {@code EditorView.paintAreas} into an offscreen image of a typical view size.<br>
+ * {@code fit} shows the whole map (all areas are painted), {@code zoomed} shows a region at zoom 1:1 in the middle of the map.
+ * {@link #paintAreas()} paints all outlines again (like after a change of the model or the view),
+ * {@link #paintAreasCached()} reuses the outline layer of the previous frame (like a hover repaint),
+ * {@link #paintAreasPanned()} moves the view by a few pixels (the layer is painted again).
+ * Without {@code levelOfDetail}, {@code fit} draws the outlines of all areas, otherwise most of them are painted as {@link DensityRaster}.
+ * {@code parallel} renders the layer in bands on all cores (limit them with {@code -jvmArgsAppend -XX:ActiveProcessorCount=n} to see the scaling).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintAreasBenchmark {
+	private static final int VIEW_WIDTH  = 1600;
+	private static final int VIEW_HEIGHT = 1000;
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	int areaCount;
+
+	@Param({"fit", "zoomed"})
+	String view;
+
+	@Param({"true", "false"})
+	boolean levelOfDetail;
+
+	@Param({"serial", "parallel"})
+	String rendering;
+
+	private EditorView editorView;
+	private BufferedImage canvas;
+	private double[] viewA;
+	private double[] viewB;
+	private boolean isViewA;
+
+	@Setup
+	public void setup() {
+		SyntheticMap map = SyntheticMap.generate(areaCount, 42);
+		AreaListModel model = new AreaListModel(map.areas);
+		for (int i=0; i<model.getSize(); i+=100) // some selected areas, painted in a second pass
+			model.setSelected(i, true);
+
+		editorView = new EditorView(VIEW_WIDTH, VIEW_HEIGHT, new JList<>(model), model, null);
+		editorView.setSize(VIEW_WIDTH, VIEW_HEIGHT);
+		editorView.setImage(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), map.width, map.height);
+		if (!editorView.isViewStateOK()) throw new IllegalStateException("View isn't set up");
+		if (view.equals("zoomed"))
+			editorView.setView(new double[] { map.width/2.0, map.height/2.0, 1.0 });
+		editorView.setLevelOfDetail(levelOfDetail);
+		editorView.setParallelRendering(rendering.equals("parallel"));
+		viewA = editorView.getView();
+		viewB = viewA.clone();
+		viewB[0] += 5/viewB[2]; // 5 px
+		isViewA = true;
+
+		canvas = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	@TearDown
+	public void tearDown() {
+		editorView.releaseImage();
+	}
+
+	@Benchmark
+	public BufferedImage paintAreas() {
+		editorView.invalidateAreaLayer();
+		return paint();
+	}
+
+	@Benchmark
+	public BufferedImage paintAreasCached() {
+		return paint();
+	}
+
+	@Benchmark
+	public BufferedImage paintAreasPanned() {
+		isViewA = !isViewA;
+		editorView.setView(isViewA ? viewA : viewB);
+		return paint();
+	}
+
+	private BufferedImage paint() {
+		Graphics2D g2 = canvas.createGraphics();
+		g2.setClip(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+		editorView.paintAreas(g2, 0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+		g2.dispose();
+		return canvas;
+	}
+}
@@ -0,0 +1,71 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.Vector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversions of single shapes: {@link Area.Shape#derive(Area.Shape.Type)} and {@link Area.Shape#toCoordsValue()}.
+ * Each call takes the next shape of a pool, so the results don't depend on a single lucky shape.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ShapeBenchmark {
+	private static final int POOL_SIZE = 1024;
+
+	private Area.Shape[] circles;
+	private Area.Shape[] rects;
+	private Area.Shape[] shapes;
+	private int next;
+
+	@Setup
+	public void setup() {
+		Vector<Area> areas = SyntheticMap.generate(4*POOL_SIZE, 42).areas;
+		Vector<Area.Shape> circles = new Vector<>();
+		Vector<Area.Shape> rects = new Vector<>();
+		for (Area area : areas) {
+			if (area.shape.type==Area.Shape.Type.Circle) { if (circles.size()<POOL_SIZE) circles.add(area.shape); }
+			else                                         { if (rects  .size()<POOL_SIZE) rects  .add(area.shape); }
+		}
+		this.circles = circles.toArray(new Area.Shape[POOL_SIZE]);
+		this.rects   = rects  .toArray(new Area.Shape[POOL_SIZE]);
+		shapes = new Area.Shape[POOL_SIZE];
+		for (int i=0; i<POOL_SIZE; i++)
+			shapes[i] = i%2==0 ? this.circles[i] : this.rects[i];
+		next = 0;
+	}
+
+	private int nextIndex() {
+		next = (next+1) & (POOL_SIZE-1);
+		return next;
+	}
+
+	@Benchmark
+	public Area.Shape deriveRectFromCircle() {
+		return circles[nextIndex()].derive(Area.Shape.Type.Rect);
+	}
+
+	@Benchmark
+	public Area.Shape deriveCircleFromRect() {
+		return rects[nextIndex()].derive(Area.Shape.Type.Circle);
+	}
+
+	@Benchmark
+	public String toCoordsValue() {
+		return shapes[nextIndex()].toCoordsValue();
+	}
+}
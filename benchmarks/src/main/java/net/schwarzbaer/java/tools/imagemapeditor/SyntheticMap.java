@@ -0,0 +1,64 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.awt.Point;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Generator of reproducible image maps for benchmarks.<br>
+ * The map grows with the number of areas, so the density stays the same (about one area per {@link #CELL} x {@link #CELL} pixels)
+ * and results for different sizes show how an operation scales, not how it reacts to crowding.
+ * Half of the areas are circles, half are rectangles. Titles and onclick values come from a limited vocabulary
+ * (like real maps, that reuse labels) and contain some chars, that have to be escaped or encoded.
+ */
+class SyntheticMap {
+	static final int CELL = 100;
+	private static final int VOCABULARY_SIZE = 500;
+
+	final int width;
+	final int height;
+	final Vector<Area> areas;
+
+	private SyntheticMap(int width, int height, Vector<Area> areas) {
+		this.width = width;
+		this.height = height;
+		this.areas = areas;
+	}
+
+	static SyntheticMap generate(int areaCount, long seed) {
+		int columns = Math.max(1, (int) Math.ceil(Math.sqrt(areaCount*4/3.0)));
+		int rows    = Math.max(1, (areaCount+columns-1)/columns);
+		int width  = columns*CELL;
+		int height = rows*CELL;
+
+		Random random = new Random(seed);
+		Vector<Area> areas = new Vector<>(areaCount);
+		for (int i=0; i<areaCount; i++) {
+			int x = random.nextInt(width);
+			int y = random.nextInt(height);
+			Area.Shape shape;
+			if (random.nextBoolean())
+				shape = new Area.Shape(new Point(x, y), 5+random.nextInt(36));
+			else
+				shape = new Area.Shape(new Point(x, y), new Point(x+10+random.nextInt(71), y+10+random.nextInt(71)));
+			int word = random.nextInt(VOCABULARY_SIZE);
+			String title   = String.format("Area %d \"%s\"", word, word%10==0 ? "Straße" : "north");
+			String onclick = String.format("showInfo('%d', \"item\\\\%d\")", word, word%37);
+			areas.add(new Area(shape, title, onclick));
+		}
+		return new SyntheticMap(width, height, areas);
+	}
+
+	/**
+	 * Returns {@code count} reproducible points on the map, e.g. mouse positions for hit tests.
+	 */
+	float[] generatePoints(int count, long seed) {
+		Random random = new Random(seed);
+		float[] points = new float[2*count];
+		for (int i=0; i<count; i++) {
+			points[2*i  ] = random.nextFloat()*width;
+			points[2*i+1] = random.nextFloat()*height;
+		}
+		return points;
+	}
+}
@@ -44,6 +44,15 @@ public class Area {
 		public enum Type {
 			Rect, Circle;
 			String toHtmlValue() { return name().toLowerCase(); }
+			
+			static Type fromHtmlValue(String value) {
+				if (value==null) return null;
+				switch (value.trim().toLowerCase()) {
+				case "rect"  : case "rectangle": return Rect;
+				case "circle": case "circ"     : return Circle;
+				}
+				return null;
+			}
 		}
 		
 		final Shape.Type type;
@@ -112,10 +121,75 @@ public class Area {
 			}
 			throw new IllegalStateException();
 		}
+		/**
+		 * Creates a shape from the values of the {@code shape} and {@code coords} attributes of an HTML {@code <area>}.<br>
+		 * Returns {@code null}, if the shape type isn't supported or the coordinates don't fit to it.
+		 */
+		public static Shape parse(String shapeValue, String coordsValue) {
+			Type type = Type.fromHtmlValue(shapeValue);
+			if (type==null || coordsValue==null) return null;
+			
+			int[] values = new int[4];
+			int count = 0;
+			int start = 0;
+			while (start<=coordsValue.length()) {
+				int end = coordsValue.indexOf(',', start);
+				if (end<0) end = coordsValue.length();
+				if (count==values.length) return null;
+				Integer value = parseCoord(coordsValue, start, end);
+				if (value==null) return null;
+				values[count++] = value;
+				start = end+1;
+			}
+			
+			switch (type) {
+			case Circle: return count!=3 || values[2]<0 ? null : new Shape(new Point(values[0],values[1]), values[2]);
+			case Rect  :
+				if (count!=4) return null;
+				// any two opposite corners are accepted, corner1 has to be the top left one
+				return new Shape(
+					new Point(Math.min(values[0],values[2]), Math.min(values[1],values[3])),
+					new Point(Math.max(values[0],values[2]), Math.max(values[1],values[3]))
+				);
+			}
+			throw new IllegalStateException();
+		}
+		
+		/**
+		 * Returns the rounded value or {@code null}, if it isn't a finite number within the range of {@code int}.
+		 */
+		private static Integer parseCoord(String str, int start, int end) {
+			while (start<end && Character.isWhitespace(str.charAt(start  ))) start++;
+			while (start<end && Character.isWhitespace(str.charAt(end-1))) end--;
+			if (start>=end) return null;
+			
+			// fast path for plain integers
+			boolean isNegative = str.charAt(start)=='-';
+			int value = 0;
+			int i = isNegative || str.charAt(start)=='+' ? start+1 : start;
+			if (i<end && end-i<10) {
+				for (; i<end; i++) {
+					char ch = str.charAt(i);
+					if (ch<'0' || ch>'9') break;
+					value = value*10 + (ch-'0');
+				}
+				if (i==end) return isNegative ? -value : value;
+			}
+			
+			double d;
+			try {
+				d = Double.parseDouble(str.substring(start, end));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (!Double.isFinite(d) || d<Integer.MIN_VALUE || d>Integer.MAX_VALUE) return null; // "NaN", "Infinity", 1e20
+			return (int) Math.round(d);
+		}
+		
 		public String toCoordsValue() {
 			switch (type) {
-			case Circle: return String.format("%d,%d,%d", center.x, center.y, radius);
-			case Rect  : return String.format("%d,%d,%d,%d", corner1.x, corner1.y, corner2.x, corner2.y);
+			case Circle: return center.x+","+center.y+","+radius;
+			case Rect  : return corner1.x+","+corner1.y+","+corner2.x+","+corner2.y;
 			}
 			throw new IllegalStateException();
 		}
@@ -0,0 +1,452 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Uniform grid over the bounds of all areas of an {@link ImageMapEditor.AreaListModel}.<br>
+ * Each area gets a slot, that holds its packed coordinates ({@link #SLOT_STRIDE} ints per slot),
+ * and is registered in all grid cells its bounds touch.
+ * Areas that would touch more than {@link #MAX_CELLS_PER_AREA} cells are kept in a separate list and are always returned as candidates.
+ */
+class AreaIndex {
+	static final int CELL_SIZE = 64;
+	private static final int MAX_CELLS_PER_AREA = 64;
+
+	static final int SLOT_STRIDE = 5;
+	static final int TYPE_FREE   = -1;
+	static final int TYPE_CIRCLE =  0;
+	static final int TYPE_RECT   =  1;
+
+	private final CellMap cells;
+	private IdentityHashMap<Area,Integer> slotOf;
+	private final SlotList oversizedSlots;
+	private final SlotList freeSlots;
+	private final SlotList candidates;
+	private Area[] slotAreas;
+	private int[] coords;
+	private int[] cellBounds;
+	private int[] queryStamps;
+	private int slotCount;
+	private int queryStamp;
+
+	AreaIndex() {
+		cells = new CellMap();
+		slotOf = new IdentityHashMap<>();
+		oversizedSlots = new SlotList();
+		freeSlots = new SlotList();
+		candidates = new SlotList();
+		slotAreas = new Area[16];
+		coords = new int[16*SLOT_STRIDE];
+		cellBounds = new int[16*4];
+		queryStamps = new int[16];
+		slotCount = 0;
+		queryStamp = 0;
+	}
+
+	static class SlotList {
+		int[] slots = new int[4];
+		int size = 0;
+
+		void add(int slot) {
+			if (size==slots.length) slots = Arrays.copyOf(slots, size*2);
+			slots[size++] = slot;
+		}
+
+		void remove(int slot) {
+			for (int i=size-1; i>=0; i--)
+				if (slots[i]==slot) {
+					slots[i] = slots[--size];
+					return;
+				}
+		}
+
+		int removeLast() {
+			return slots[--size];
+		}
+	}
+
+	/**
+	 * Open addressing hash map from packed cell coordinates to {@link SlotList}s.<br>
+	 * Avoids the boxing of keys, that a {@code HashMap<Long,SlotList>} would need for each lookup.
+	 * Cells are never removed, emptied cells just keep an empty list.
+	 */
+	private static class CellMap {
+		private long[] keys = new long[64];
+		private SlotList[] values = new SlotList[64];
+		private int size = 0;
+
+		private static int hash(long key) {
+			long h = key*0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h>>>32));
+		}
+
+		void clear() {
+			Arrays.fill(values, null);
+			size = 0;
+		}
+
+		SlotList get(long key) {
+			int mask = keys.length-1;
+			for (int i=hash(key)&mask; values[i]!=null; i=(i+1)&mask)
+				if (keys[i]==key) return values[i];
+			return null;
+		}
+
+		SlotList getOrCreate(long key) {
+			SlotList list = get(key);
+			if (list!=null) return list;
+			if (2*(size+1) > keys.length) grow();
+			list = new SlotList();
+			put(key, list);
+			size++;
+			return list;
+		}
+
+		private void put(long key, SlotList list) {
+			int mask = keys.length-1;
+			int i = hash(key)&mask;
+			while (values[i]!=null) i=(i+1)&mask;
+			keys[i] = key;
+			values[i] = list;
+		}
+
+		void ensureCapacity(int capacity) {
+			int length = keys.length;
+			while (2*capacity > length) length *= 2;
+			if (length>keys.length) grow(length);
+		}
+
+		private void grow() {
+			grow(keys.length*2);
+		}
+
+		private void grow(int length) {
+			long[] oldKeys = keys;
+			SlotList[] oldValues = values;
+			keys = new long[length];
+			values = new SlotList[length];
+			for (int i=0; i<oldKeys.length; i++)
+				if (oldValues[i]!=null) put(oldKeys[i], oldValues[i]);
+		}
+	}
+
+	/**
+	 * Result of a nearest area search.
+	 * One instance is meant to be reused for all searches, so the search itself doesn't allocate anything.
+	 */
+	static class Nearest {
+		Area area = null;
+		double distanceSq = Double.NaN;
+		boolean isInside = false;
+	}
+
+	private static int toCell(double v) {
+		return (int) Math.floor(v/CELL_SIZE);
+	}
+
+	private static long toKey(int cX, int cY) {
+		return (((long)cX)<<32) | (cY & 0xFFFFFFFFL);
+	}
+
+	int size() {
+		return slotOf.size();
+	}
+
+	void clear() {
+		cells.clear();
+		slotOf.clear();
+		oversizedSlots.size = 0;
+		freeSlots.size = 0;
+		Arrays.fill(slotAreas, 0, slotCount, null);
+		slotCount = 0;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity<=slotAreas.length) return;
+		int n = Math.max(capacity, slotAreas.length*2);
+		slotAreas   = Arrays.copyOf(slotAreas  , n);
+		coords      = Arrays.copyOf(coords     , n*SLOT_STRIDE);
+		cellBounds  = Arrays.copyOf(cellBounds , n*4);
+		queryStamps = Arrays.copyOf(queryStamps, n);
+	}
+
+	/**
+	 * Adds the areas {@code areas[from]} to {@code areas[to-1]}.<br>
+	 * Slot arrays and maps are sized once for all of them and the areas are registered in cell order,
+	 * so this is much faster than single adds for large counts.
+	 */
+	void addAll(Area[] areas, int from, int to) {
+		int count = to-from;
+		if (count<=0) return;
+		if (slotOf.isEmpty() && count>64)
+			slotOf = new IdentityHashMap<>(count);
+		ensureCapacity(slotCount+count);
+		int[] added = new int[count];
+		int addedCount = 0;
+		for (int i=from; i<to; i++) {
+			Area area = areas[i];
+			if (area==null || area.shape==null) continue;
+			int slot = freeSlots.size>0 ? freeSlots.removeLast() : slotCount++;
+			if (slotOf.putIfAbsent(area, slot)!=null) {
+				if (slot==slotCount-1) slotCount--; else freeSlots.add(slot);
+				continue;
+			}
+			slotAreas[slot] = area;
+			setCoords(slot, area.shape);
+			added[addedCount++] = slot;
+		}
+
+		// register in row-major cell order, so consecutive registrations mostly hit the same cells
+		int minCX = Integer.MAX_VALUE, minCY = Integer.MAX_VALUE;
+		int maxCX = Integer.MIN_VALUE, maxCY = Integer.MIN_VALUE;
+		for (int i=0; i<addedCount; i++) {
+			int b = added[i]*4;
+			minCX = Math.min(minCX, cellBounds[b  ]);
+			minCY = Math.min(minCY, cellBounds[b+1]);
+			maxCX = Math.max(maxCX, cellBounds[b  ]);
+			maxCY = Math.max(maxCY, cellBounds[b+1]);
+		}
+		long gridWidth = (long)maxCX-minCX+1;
+		if (gridWidth*((long)maxCY-minCY+1) > Integer.MAX_VALUE) { // too sparse for sorting by cell index
+			for (int i=0; i<addedCount; i++)
+				register(added[i]);
+			return;
+		}
+		long[] order = new long[addedCount];
+		for (int i=0; i<addedCount; i++) {
+			int b = added[i]*4;
+			long cellIndex = ((long)cellBounds[b+1]-minCY)*gridWidth + ((long)cellBounds[b]-minCX);
+			order[i] = (cellIndex<<32) | added[i];
+		}
+		Arrays.sort(order);
+		for (int i=0; i<addedCount; i++)
+			register((int) order[i]);
+	}
+
+	void add(Area area) {
+		if (area==null || area.shape==null || slotOf.containsKey(area)) return;
+		int slot;
+		if (freeSlots.size>0)
+			slot = freeSlots.removeLast();
+		else {
+			if (slotCount==slotAreas.length) ensureCapacity(slotCount+1);
+			slot = slotCount++;
+		}
+		slotAreas[slot] = area;
+		slotOf.put(area, slot);
+		setCoords(slot, area.shape);
+		register(slot);
+	}
+
+	void remove(Area area) {
+		Integer slot = slotOf.remove(area);
+		if (slot==null) return;
+		unregister(slot);
+		slotAreas[slot] = null;
+		coords[slot*SLOT_STRIDE] = TYPE_FREE;
+		freeSlots.add(slot);
+	}
+
+	void update(Area area) {
+		Integer slot = slotOf.get(area);
+		if (slot==null) { add(area); return; }
+		unregister(slot);
+		setCoords(slot, area.shape);
+		register(slot);
+	}
+
+	private void setCoords(int slot, Area.Shape shape) {
+		int i = slot*SLOT_STRIDE;
+		switch (shape.type) {
+		case Circle:
+			coords[i  ] = TYPE_CIRCLE;
+			coords[i+1] = shape.center.x;
+			coords[i+2] = shape.center.y;
+			coords[i+3] = shape.radius;
+			coords[i+4] = 0;
+			break;
+		case Rect:
+			coords[i  ] = TYPE_RECT;
+			coords[i+1] = shape.corner1.x;
+			coords[i+2] = shape.corner1.y;
+			coords[i+3] = shape.corner2.x+1;
+			coords[i+4] = shape.corner2.y+1;
+			break;
+		}
+
+		int b = slot*4;
+		if (coords[i]==TYPE_CIRCLE) {
+			int r = coords[i+3];
+			cellBounds[b  ] = toCell(coords[i+1]-r);
+			cellBounds[b+1] = toCell(coords[i+2]-r);
+			cellBounds[b+2] = toCell(coords[i+1]+r);
+			cellBounds[b+3] = toCell(coords[i+2]+r);
+		} else {
+			cellBounds[b  ] = toCell(coords[i+1]);
+			cellBounds[b+1] = toCell(coords[i+2]);
+			cellBounds[b+2] = toCell(coords[i+3]);
+			cellBounds[b+3] = toCell(coords[i+4]);
+		}
+	}
+
+	private boolean isOversized(int slot) {
+		int b = slot*4;
+		return (long)(cellBounds[b+2]-cellBounds[b]+1)*(cellBounds[b+3]-cellBounds[b+1]+1) > MAX_CELLS_PER_AREA;
+	}
+
+	private void register(int slot) {
+		if (isOversized(slot)) { oversizedSlots.add(slot); return; }
+		int b = slot*4;
+		for (int cX=cellBounds[b]; cX<=cellBounds[b+2]; cX++)
+			for (int cY=cellBounds[b+1]; cY<=cellBounds[b+3]; cY++)
+				cells.getOrCreate(toKey(cX,cY)).add(slot);
+	}
+
+	private void unregister(int slot) {
+		if (isOversized(slot)) { oversizedSlots.remove(slot); return; }
+		int b = slot*4;
+		for (int cX=cellBounds[b]; cX<=cellBounds[b+2]; cX++)
+			for (int cY=cellBounds[b+1]; cY<=cellBounds[b+3]; cY++) {
+				SlotList cell = cells.get(toKey(cX,cY));
+				if (cell!=null) cell.remove(slot);
+			}
+	}
+
+	/**
+	 * Collects the slots of all areas, whose cells intersect the cells of [{@code minX},{@code maxX}] x [{@code minY},{@code maxY}].<br>
+	 * Any area not collected doesn't intersect that rectangle.
+	 * Returns {@code false}, if the rectangle covers more cells than there are areas. In that case nothing is collected and all slots have to be checked.
+	 */
+	private boolean collectCandidates(double minX, double minY, double maxX, double maxY, SlotList result) {
+		result.size = 0;
+		int minCX = toCell(minX), maxCX = toCell(maxX);
+		int minCY = toCell(minY), maxCY = toCell(maxY);
+
+		if ((long)(maxCX-minCX+1)*(maxCY-minCY+1) > slotOf.size())
+			return false;
+
+		queryStamp++;
+		for (int cX=minCX; cX<=maxCX; cX++)
+			for (int cY=minCY; cY<=maxCY; cY++) {
+				SlotList cell = cells.get(toKey(cX,cY));
+				if (cell==null) continue;
+				for (int i=0; i<cell.size; i++) {
+					int slot = cell.slots[i];
+					if (queryStamps[slot]==queryStamp) continue;
+					queryStamps[slot] = queryStamp;
+					result.add(slot);
+				}
+			}
+		for (int i=0; i<oversizedSlots.size; i++)
+			result.add(oversizedSlots.slots[i]);
+		return true;
+	}
+
+	/**
+	 * Searches the area nearest to ({@code pX},{@code pY}) among all areas within {@code radius} or containing that point.<br>
+	 * Returns {@code false}, if there is no area at all.
+	 * The found area may still be farther away than {@code radius}, if the whole index was scanned.
+	 */
+	boolean findNearest(float pX, float pY, float radius, Nearest result) {
+		int slot;
+		if (collectCandidates(pX-radius, pY-radius, pX+radius, pY+radius, candidates))
+			slot = findNearest(coords, candidates.slots, candidates.size, pX, pY, result);
+		else
+			slot = findNearest(coords, null, slotCount, pX, pY, result);
+
+		result.area = slot<0 ? null : slotAreas[slot];
+		return slot>=0;
+	}
+
+	interface AreaAction {
+		void apply(Area area);
+	}
+
+	/**
+	 * Gives each area, whose bounds intersect [{@code minX},{@code maxX}] x [{@code minY},{@code maxY}], once to {@code action}.<br>
+	 * Returns {@code false}, if the rectangle covers more cells than there are areas (e.g. the whole map).
+	 * In that case nothing is given to {@code action}, because a scan of all areas is cheaper.
+	 */
+	boolean forEachIntersecting(double minX, double minY, double maxX, double maxY, AreaAction action) {
+		if (!collectCandidates(minX, minY, maxX, maxY, candidates)) return false;
+		for (int n=0; n<candidates.size; n++) {
+			int slot = candidates.slots[n];
+			int i = slot*SLOT_STRIDE;
+			switch (coords[i]) {
+			case TYPE_CIRCLE: {
+				int r = coords[i+3];
+				if (coords[i+1]+r < minX || maxX < coords[i+1]-r || coords[i+2]+r < minY || maxY < coords[i+2]-r) continue;
+			} break;
+			case TYPE_RECT:
+				if (coords[i+3] < minX || maxX < coords[i+1] || coords[i+4] < minY || maxY < coords[i+2]) continue;
+				break;
+			default:
+				continue;
+			}
+			action.apply(slotAreas[slot]);
+		}
+		return true;
+	}
+
+	/**
+	 * Distance kernel over packed coordinates.<br>
+	 * Compares squared distances. A square root is only needed for a new minimum and for circles, whose line could beat the current minimum.
+	 * If {@code slots} is {@code null}, the first {@code count} slots are scanned, otherwise the first {@code count} entries of {@code slots}.
+	 * Returns the slot of the nearest area or -1 and writes distance and inside flag of that area into {@code result}.
+	 */
+	static int findNearest(int[] coords, int[] slots, int count, float pX, float pY, Nearest result) {
+		int minSlot = -1;
+		double minDistSq = Double.POSITIVE_INFINITY;
+		double minDist   = Double.POSITIVE_INFINITY;
+		boolean minIsInside = false;
+
+		for (int n=0; n<count; n++) {
+			int slot = slots==null ? n : slots[n];
+			int i = slot*SLOT_STRIDE;
+			double distSq;
+			boolean isInside;
+
+			switch (coords[i]) {
+			case TYPE_CIRCLE: {
+				double dX = coords[i+1]-pX;
+				double dY = coords[i+2]-pY;
+				double r  = coords[i+3];
+				double d1Sq = dX*dX+dY*dY;
+				isInside = d1Sq <= r*r;
+				if (4*d1Sq <= r*r)
+					distSq = d1Sq; // center is at least as near as the circle line
+				else {
+					double lo = r-minDist, hi = r+minDist;
+					if (d1Sq >= hi*hi || (lo>0 && d1Sq <= lo*lo)) continue; // circle line can't beat current minimum
+					double d2 = Math.sqrt(d1Sq)-r;
+					distSq = d2*d2;
+				}
+			} break;
+
+			case TYPE_RECT: {
+				double x1 = coords[i+1]-pX, y1 = coords[i+2]-pY;
+				double x2 = coords[i+3]-pX, y2 = coords[i+4]-pY;
+				double mX = (x1+x2)*0.5   , mY = (y1+y2)*0.5;
+				// nearest corner combines the nearer x with the nearer y
+				distSq = Math.min(mX*mX+mY*mY, Math.min(x1*x1,x2*x2)+Math.min(y1*y1,y2*y2));
+				isInside = coords[i+1]<=pX && pX<=coords[i+3] && coords[i+2]<=pY && pY<=coords[i+4];
+			} break;
+
+			default:
+				continue;
+			}
+
+			if (distSq < minDistSq) {
+				minSlot = slot;
+				minDistSq = distSq;
+				minDist = Math.sqrt(distSq);
+				minIsInside = isInside;
+			}
+		}
+
+		result.distanceSq = minDistSq;
+		result.isInside = minIsInside;
+		return minSlot;
+	}
+}
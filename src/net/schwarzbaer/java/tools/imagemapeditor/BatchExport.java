@@ -0,0 +1,194 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless batch export of many image maps.<br>
+ * Reads a job list and writes one HTML file per job, using the same markup as the editor.
+ * Jobs run concurrently on a work stealing pool. Images are never decoded and no AWT toolkit is needed.
+ * <p>
+ * Job list: one job per line, fields separated by tabs, lines starting with {@code #} are ignored.
+ * <pre>
+ * &lt;image file or URL&gt;  &lt;area definitions&gt;  &lt;output HTML file&gt;  [reduced]
+ * </pre>
+ * Area definitions are either an HTML file ({@code .html}/{@code .htm}, read with {@link HtmlImporter})
+ * or a text file with one area per line: {@code <shape> <coords> <title> <onclick>}, separated by tabs,
+ * with the same values as the attributes of an HTML {@code <area>}.
+ * Relative paths are resolved against the folder of the job list.
+ */
+public class BatchExport {
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		File jobListFile = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equals("-threads") && i+1<args.length) {
+				try { threads = Integer.parseInt(args[++i]); }
+				catch (NumberFormatException e) { System.err.printf("Wrong number of threads: \"%s\"%n", args[i]); return; }
+			} else
+				jobListFile = new File(args[i]);
+		}
+		if (jobListFile==null) {
+			System.out.println("usage: BatchExport [-threads <n>] <job list file>");
+			return;
+		}
+
+		Vector<Job> jobs;
+		try {
+			jobs = readJobList(jobListFile);
+		} catch (IOException e) {
+			System.err.printf("IOException while reading job list \"%s\": %s%n", jobListFile.getAbsolutePath(), e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		boolean allOk = run(jobs, threads);
+		System.exit(allOk ? 0 : 1);
+	}
+
+	static class Job {
+		final int lineNumber;
+		final String image;
+		final File areaFile;
+		final File outputFile;
+		final boolean completeHTML;
+
+		Job(int lineNumber, String image, File areaFile, File outputFile, boolean completeHTML) {
+			this.lineNumber = lineNumber;
+			this.image = image;
+			this.areaFile = areaFile;
+			this.outputFile = outputFile;
+			this.completeHTML = completeHTML;
+		}
+
+		@Override public String toString() {
+			return String.format("[%d] %s", lineNumber, outputFile.getPath());
+		}
+	}
+
+	private static class JobResult {
+		final Job job;
+		final int areaCount;
+		final long durationNanos;
+		final Exception error;
+
+		JobResult(Job job, int areaCount, long durationNanos, Exception error) {
+			this.job = job;
+			this.areaCount = areaCount;
+			this.durationNanos = durationNanos;
+			this.error = error;
+		}
+	}
+
+	static Vector<Job> readJobList(File jobListFile) throws IOException {
+		File baseFolder = jobListFile.getAbsoluteFile().getParentFile();
+		Vector<Job> jobs = new Vector<>();
+		List<String> lines = Files.readAllLines(jobListFile.toPath(), StandardCharsets.UTF_8);
+		for (int i=0; i<lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			String[] fields = line.split("\t");
+			if (fields.length<3) {
+				System.err.printf("Job list, line %d: expected at least 3 fields, found %d -> ignored%n", i+1, fields.length);
+				continue;
+			}
+			String image = fields[0].trim();
+			if (!isURL(image)) image = resolve(baseFolder, image).getPath();
+			boolean completeHTML = fields.length<4 || !fields[3].trim().equalsIgnoreCase("reduced");
+			jobs.add(new Job(i+1, image, resolve(baseFolder, fields[1].trim()), resolve(baseFolder, fields[2].trim()), completeHTML));
+		}
+		return jobs;
+	}
+
+	private static boolean isURL(String str) {
+		return str.contains("://");
+	}
+
+	private static File resolve(File baseFolder, String path) {
+		File file = new File(path);
+		return file.isAbsolute() ? file : new File(baseFolder, path);
+	}
+
+	static boolean run(Vector<Job> jobs, int threads) {
+		System.out.printf("Run %d jobs on %d threads%n", jobs.size(), threads);
+		ExecutorService executor = Executors.newWorkStealingPool(Math.max(1, threads));
+		CompletionService<JobResult> completionService = new ExecutorCompletionService<>(executor);
+		long start = System.nanoTime();
+		for (Job job : jobs)
+			completionService.submit(()->runJob(job));
+
+		int failed = 0;
+		long totalAreas = 0;
+		try {
+			for (int i=0; i<jobs.size(); i++) {
+				JobResult result = completionService.take().get();
+				if (result.error!=null) {
+					failed++;
+					System.err.printf("%s failed after %1.3f ms: %s: %s%n", result.job, result.durationNanos/1e6, result.error.getClass().getSimpleName(), result.error.getMessage());
+				} else {
+					totalAreas += result.areaCount;
+					System.out.printf("%s: %d areas in %1.3f ms%n", result.job, result.areaCount, result.durationNanos/1e6);
+				}
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			System.err.printf("Batch export aborted: %s%n", e.getMessage());
+			executor.shutdownNow();
+			return false;
+		}
+		executor.shutdown();
+
+		double seconds = (System.nanoTime()-start)/1e9;
+		System.out.printf("%d jobs (%d failed) in %1.3f s -> %1.1f jobs/s, %1.0f areas/s%n",
+				jobs.size(), failed, seconds, jobs.size()/seconds, totalAreas/seconds);
+		return failed==0;
+	}
+
+	private static JobResult runJob(Job job) {
+		long start = System.nanoTime();
+		try {
+			Vector<Area> areas = readAreas(job.areaFile);
+			String imageSrc = isURL(job.image) ? job.image : new File(job.image).toURI().toURL().toString();
+			HtmlExporter.write(job.outputFile, job.completeHTML, imageSrc, areas);
+			return new JobResult(job, areas.size(), System.nanoTime()-start, null);
+		} catch (Exception e) {
+			return new JobResult(job, 0, System.nanoTime()-start, e);
+		}
+	}
+
+	static Vector<Area> readAreas(File file) throws IOException {
+		Vector<Area> areas = new Vector<>();
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(".html") || name.endsWith(".htm")) {
+			HtmlImporter.read(file, HtmlImporter.DEFAULT_CHUNK_SIZE, areas::addAll);
+			return areas;
+		}
+
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine())!=null) {
+				lineNumber++;
+				if (line.trim().isEmpty() || line.startsWith("#")) continue;
+				String[] fields = line.split("\t", 4);
+				Area.Shape shape = fields.length<2 ? null : Area.Shape.parse(fields[0], fields[1]);
+				if (shape==null)
+					throw new IOException(String.format("%s, line %d: can't read area definition", file.getName(), lineNumber));
+				areas.add(new Area(shape, fields.length>2 ? fields[2] : "", fields.length>3 ? fields[3] : ""));
+			}
+		}
+		return areas;
+	}
+}
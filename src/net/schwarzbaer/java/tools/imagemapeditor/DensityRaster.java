@@ -0,0 +1,195 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import net.schwarzbaer.java.tools.imagemapeditor.ImageMapEditor.AreaListModel;
+
+/**
+ * Level of detail for zoomed out views.<br>
+ * The map is divided into square cells of {@link #cellSize} pixels, a cell is about one screen pixel.
+ * Areas smaller than {@link #SMALL_AREA_CELLS} cells would only be painted as noise of overlapping sub-pixel outlines.
+ * They are counted in the cell of their center instead, and the counts are painted as one translucent image,
+ * that gets darker with each area like overlapping outlines would.
+ * All other areas are collected in {@link #largeAreas} and are still painted as outlines.
+ * Selected small areas and an excluded area (the dragged one) aren't counted, because they are outlined anyway.
+ * <p>
+ * A raster is built for one cell size, i.e. for all scales between 1/cellSize and 2/cellSize.
+ * Changes of single areas (shape, selection, exclusion) are applied with {@link #update(int, Area, boolean)},
+ * which needs the cell of each area; it's stored by model index, so added or removed areas need a new raster.
+ */
+class DensityRaster {
+	static final int SMALL_AREA_CELLS = 4;
+	private static final int MAX_CELLS = 1<<22;
+	private static final int COLOR_RGB = 0x808080;
+	private static final double AREA_ALPHA = 0.375;
+	private static final int[] COLORS = createColors();
+	private static final int NOT_COUNTED = -1;
+	private static final int LARGE = -2;
+
+	final int cellSize;
+	final int originX;
+	final int originY;
+	final int columns;
+	final int rows;
+	/** {@code null}, if there are no areas or the raster would have more than {@link #MAX_CELLS} cells. Then all areas have to be painted as outlines. */
+	final BufferedImage image;
+	final Area[] largeAreas;
+	private final int[] counts;
+	/** cell of each area (by model index), {@link #NOT_COUNTED} or {@link #LARGE}-i for {@code largeAreas[i]} */
+	private final int[] areaCells;
+
+	private DensityRaster(int cellSize, int originX, int originY, int columns, int rows, BufferedImage image, Area[] largeAreas, int[] counts, int[] areaCells) {
+		this.cellSize = cellSize;
+		this.originX = originX;
+		this.originY = originY;
+		this.columns = columns;
+		this.rows = rows;
+		this.image = image;
+		this.largeAreas = largeAreas;
+		this.counts = counts;
+		this.areaCells = areaCells;
+	}
+
+	private static int[] createColors() {
+		// alpha of n overlapping outlines: 1-(1-a)^n
+		int[] colors = new int[32];
+		for (int n=1; n<colors.length; n++)
+			colors[n] = ((int) Math.round(255*(1-Math.pow(1-AREA_ALPHA, n)))<<24) | COLOR_RGB;
+		return colors;
+	}
+
+	private static int getColor(int count) {
+		return COLORS[Math.min(count, COLORS.length-1)];
+	}
+
+	/**
+	 * Returns the cell size for a scale of {@code pixelPerLength} screen pixels per image pixel:
+	 * the smallest power of two, that is at least one screen pixel. A result below 2 means, that no raster is needed.
+	 */
+	static int getCellSize(double pixelPerLength) {
+		int cellSize = 1;
+		while (cellSize*pixelPerLength < 1.0 && cellSize<(1<<30))
+			cellSize *= 2;
+		return cellSize;
+	}
+
+	/**
+	 * Builds the raster for all areas of {@code model} except selected ones and {@code excludedArea}.
+	 */
+	static DensityRaster build(AreaListModel model, int cellSize, Area excludedArea) {
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		for (Area area : model) {
+			Area.Shape shape = area.shape;
+			if (shape==null) continue;
+			int x = getCenterX(shape), y = getCenterY(shape);
+			minX = Math.min(minX, x); maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y); maxY = Math.max(maxY, y);
+		}
+		if (minX>maxX) return new DensityRaster(cellSize, 0, 0, 0, 0, null, null, null, null);
+
+		int originX = Math.floorDiv(minX, cellSize)*cellSize;
+		int originY = Math.floorDiv(minY, cellSize)*cellSize;
+		long columns = ((long)maxX-originX)/cellSize+1;
+		long rows    = ((long)maxY-originY)/cellSize+1;
+		if (columns*rows > MAX_CELLS) return new DensityRaster(cellSize, originX, originY, 0, 0, null, null, null, null);
+
+		int[] counts = new int[(int) (columns*rows)];
+		int[] areaCells = new int[model.getSize()];
+		Area[] largeAreas = new Area[16];
+		int largeAreaCount = 0;
+		DensityRaster raster = new DensityRaster(cellSize, originX, originY, (int) columns, (int) rows, null, null, counts, areaCells);
+		for (int i=0; i<areaCells.length; i++) {
+			Area area = model.getElementAt(i);
+			int cell = raster.getCell(area, model.isSelected(i) || area==excludedArea);
+			areaCells[i] = cell;
+			if (cell>=0) counts[cell]++;
+			else if (cell==LARGE) {
+				if (largeAreaCount==largeAreas.length) largeAreas = Arrays.copyOf(largeAreas, largeAreaCount*2);
+				areaCells[i] = LARGE-largeAreaCount;
+				largeAreas[largeAreaCount++] = area;
+			}
+		}
+
+		int[] colors = new int[counts.length];
+		for (int i=0; i<counts.length; i++)
+			colors[i] = getColor(counts[i]);
+		BufferedImage image = new BufferedImage((int) columns, (int) rows, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, (int) columns, (int) rows, colors, 0, (int) columns);
+
+		return new DensityRaster(cellSize, originX, originY, (int) columns, (int) rows, image, Arrays.copyOf(largeAreas, largeAreaCount), counts, areaCells);
+	}
+
+	/**
+	 * Returns the cell of a small area, {@link #LARGE} or {@link #NOT_COUNTED} (no shape, {@code isLeftOut} or outside of the raster).
+	 */
+	private int getCell(Area area, boolean isLeftOut) {
+		Area.Shape shape = area.shape;
+		if (shape==null) return NOT_COUNTED;
+		if (getSize(shape) >= (long)SMALL_AREA_CELLS*cellSize) return LARGE;
+		if (isLeftOut) return NOT_COUNTED;
+		long cX = Math.floorDiv((long)getCenterX(shape)-originX, cellSize);
+		long cY = Math.floorDiv((long)getCenterY(shape)-originY, cellSize);
+		if (cX<0 || cX>=columns || cY<0 || cY>=rows) return NOT_COUNTED;
+		return (int) (cY*columns+cX);
+	}
+
+	/**
+	 * Moves the count of the area at {@code index} to its current cell.<br>
+	 * Returns {@code false}, if the raster has to be built again: the area changed between small and large,
+	 * or its center left the raster.
+	 */
+	boolean update(int index, Area area, boolean isLeftOut) {
+		if (image==null) return true; // nothing is counted
+		if (index<0 || index>=areaCells.length) return false;
+		int oldCell = areaCells[index];
+		int newCell = getCell(area, isLeftOut);
+		if (oldCell<=LARGE || newCell==LARGE) // still the same large area?
+			return oldCell<=LARGE && newCell==LARGE && largeAreas[LARGE-oldCell]==area;
+		if (newCell==NOT_COUNTED && !isLeftOut && area.shape!=null) return false; // outside
+		if (oldCell==newCell) return true;
+		if (oldCell>=0) setCount(oldCell, counts[oldCell]-1);
+		if (newCell>=0) setCount(newCell, counts[newCell]+1);
+		areaCells[index] = newCell;
+		return true;
+	}
+
+	private void setCount(int cell, int count) {
+		counts[cell] = count;
+		image.setRGB(cell%columns, cell/columns, getColor(count));
+	}
+
+	private static int getCenterX(Area.Shape shape) {
+		switch (shape.type) {
+		case Circle: return shape.center.x;
+		case Rect  : return (int) (((long)shape.corner1.x+shape.corner2.x)/2);
+		}
+		throw new IllegalStateException();
+	}
+
+	private static int getCenterY(Area.Shape shape) {
+		switch (shape.type) {
+		case Circle: return shape.center.y;
+		case Rect  : return (int) (((long)shape.corner1.y+shape.corner2.y)/2);
+		}
+		throw new IllegalStateException();
+	}
+
+	private static long getSize(Area.Shape shape) {
+		switch (shape.type) {
+		case Circle: return 2L*shape.radius;
+		case Rect  : return Math.max(Math.abs((long)shape.corner2.x-shape.corner1.x), Math.abs((long)shape.corner2.y-shape.corner1.y))+1;
+		}
+		throw new IllegalStateException();
+	}
+
+	/**
+	 * Paints the raster, so that its cells cover the screen rectangle from ({@code x0},{@code y0}) to ({@code x1},{@code y1}).
+	 */
+	void paint(Graphics2D g2, int x0, int y0, int x1, int y1) {
+		if (image==null) return;
+		g2.drawImage(image, x0, y0, x1-x0, y1-y0, null);
+	}
+}
@@ -0,0 +1,288 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.awt.Point;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Vector;
+
+import net.schwarzbaer.java.tools.imagemapeditor.ImageMapEditor.AreaListModel;
+
+/**
+ * Undo/redo journal for the edits of an {@link AreaListModel}.<br>
+ * Entries hold deltas only: a changed area (referenced by identity) with its packed old and new shape and changed strings,
+ * or the positions and objects of added or removed areas. The model is never copied.
+ * The estimated size of all entries is limited by a memory cap; when it's exceeded, the oldest entries are evicted.
+ * <p>
+ * All changes of the model, that are not made or recorded by the journal, must be followed by {@link #clear()}.
+ */
+class EditJournal {
+	static final long DEFAULT_MEMORY_CAP = 64L<<20;
+
+	private final AreaListModel model;
+	private final ArrayDeque<Entry> undoEntries; // newest last
+	private final ArrayDeque<Entry> redoEntries; // newest last
+	private final Vector<Runnable> changeListeners;
+	private long memoryCap;
+	private long usedBytes;
+
+	EditJournal(AreaListModel model) {
+		this.model = model;
+		undoEntries = new ArrayDeque<>();
+		redoEntries = new ArrayDeque<>();
+		changeListeners = new Vector<>();
+		memoryCap = DEFAULT_MEMORY_CAP;
+		usedBytes = 0;
+	}
+
+	void    addChangeListener(Runnable l) { changeListeners.   add(l); }
+	void removeChangeListener(Runnable l) { changeListeners.remove(l); }
+
+	private void fireChanged() {
+		for (Runnable l : changeListeners)
+			l.run();
+	}
+
+	void setMemoryCap(long bytes) {
+		memoryCap = bytes;
+		evict();
+		fireChanged();
+	}
+
+	long getUsedBytes() { return usedBytes; }
+
+	boolean canUndo() { return !undoEntries.isEmpty(); }
+	boolean canRedo() { return !redoEntries.isEmpty(); }
+	String getUndoName() { return undoEntries.isEmpty() ? null : undoEntries.getLast().getName(); }
+	String getRedoName() { return redoEntries.isEmpty() ? null : redoEntries.getLast().getName(); }
+
+	void clear() {
+		undoEntries.clear();
+		redoEntries.clear();
+		usedBytes = 0;
+		fireChanged();
+	}
+
+	void undo() {
+		if (undoEntries.isEmpty()) return;
+		Entry entry = undoEntries.removeLast();
+		entry.undo(model);
+		redoEntries.addLast(entry);
+		fireChanged();
+	}
+
+	void redo() {
+		if (redoEntries.isEmpty()) return;
+		Entry entry = redoEntries.removeLast();
+		entry.redo(model);
+		undoEntries.addLast(entry);
+		fireChanged();
+	}
+
+	private void record(Entry entry) {
+		for (Entry e : redoEntries) usedBytes -= e.getBytes();
+		redoEntries.clear();
+		undoEntries.addLast(entry);
+		usedBytes += entry.getBytes();
+		evict();
+		fireChanged();
+	}
+
+	private void evict() {
+		while (usedBytes>memoryCap && !undoEntries.isEmpty())
+			usedBytes -= undoEntries.removeFirst().getBytes();
+		while (usedBytes>memoryCap && !redoEntries.isEmpty())
+			usedBytes -= redoEntries.removeFirst().getBytes();
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	//   operations
+
+	void add(Area area) {
+		model.add(area);
+		record(new Insertion(new int[] { model.getSize()-1 }, new Area[] { area }, true));
+	}
+
+	/**
+	 * Records {@code areas}, that were already added to the model without the journal (e.g. by an import), as one entry.
+	 */
+	void recordAddition(Collection<Area> areas) {
+		int[] indices = new int[areas.size()];
+		int count = 0;
+		for (Area area : areas) {
+			int index = model.indexOf(area);
+			if (index>=0) indices[count++] = index;
+		}
+		if (count==0) return;
+
+		indices = Arrays.copyOf(indices, count);
+		Arrays.sort(indices);
+		Area[] sorted = new Area[count];
+		for (int i=0; i<count; i++)
+			sorted[i] = model.getElementAt(indices[i]);
+		record(new Insertion(indices, sorted, true));
+	}
+
+	void remove(Area area) {
+		int index = model.indexOf(area);
+		if (index<0) return;
+		remove(new int[] { index });
+	}
+
+	void remove(int[] indices) {
+		int[] sorted = indices.clone();
+		Arrays.sort(sorted);
+		int count = 0;
+		for (int i=0; i<sorted.length; i++)
+			if (sorted[i]>=0 && sorted[i]<model.getSize() && (count==0 || sorted[count-1]!=sorted[i]))
+				sorted[count++] = sorted[i];
+		if (count==0) return;
+
+		sorted = Arrays.copyOf(sorted, count);
+		Area[] areas = new Area[count];
+		for (int i=0; i<count; i++)
+			areas[i] = model.getElementAt(sorted[i]);
+		model.remove(sorted);
+		record(new Insertion(sorted, areas, false));
+	}
+
+	/**
+	 * Records a change of {@code area}, that was already applied to it.<br>
+	 * {@code oldShape} is the packed shape (see {@link #pack(Area.Shape)}) before the change.
+	 * {@code oldTitle} and {@code oldOnclick} are the values before the change.
+	 * Nothing is recorded, if the area is equal to these values.
+	 */
+	void recordChange(Area area, int[] oldShape, String oldTitle, String oldOnclick) {
+		int[] newShape = pack(area.shape);
+		boolean shapeChanged = !Arrays.equals(oldShape, newShape);
+		boolean titleChanged = !equals(oldTitle, area.title);
+		boolean onclickChanged = !equals(oldOnclick, area.onclick);
+		if (!shapeChanged && !titleChanged && !onclickChanged) return;
+
+		record(new AreaChange(area,
+				shapeChanged ? oldShape : null, shapeChanged ? newShape : null,
+				titleChanged ? oldTitle : null, titleChanged ? area.title : null, titleChanged,
+				onclickChanged ? oldOnclick : null, onclickChanged ? area.onclick : null, onclickChanged));
+	}
+
+	void recordChange(Area area, int[] oldShape) {
+		recordChange(area, oldShape, area.title, area.onclick);
+	}
+
+	private static boolean equals(String str1, String str2) {
+		return str1==null ? str2==null : str1.equals(str2);
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	//   packed shapes
+
+	private static final int PACKED_CIRCLE = 0;
+	private static final int PACKED_RECT   = 1;
+
+	/**
+	 * Packs a shape into {@code [type, centerX, centerY, radius]} or {@code [type, corner1X, corner1Y, corner2X, corner2Y]}.
+	 */
+	static int[] pack(Area.Shape shape) {
+		switch (shape.type) {
+		case Circle: return new int[] { PACKED_CIRCLE, shape.center.x, shape.center.y, shape.radius };
+		case Rect  : return new int[] { PACKED_RECT, shape.corner1.x, shape.corner1.y, shape.corner2.x, shape.corner2.y };
+		}
+		throw new IllegalStateException();
+	}
+
+	static Area.Shape unpack(int[] values) {
+		switch (values[0]) {
+		case PACKED_CIRCLE: return new Area.Shape(new Point(values[1], values[2]), values[3]);
+		case PACKED_RECT  : return new Area.Shape(new Point(values[1], values[2]), new Point(values[3], values[4]));
+		}
+		throw new IllegalStateException();
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	//   entries
+
+	private static abstract class Entry {
+		abstract void undo(AreaListModel model);
+		abstract void redo(AreaListModel model);
+		abstract long getBytes();
+		abstract String getName();
+
+		static long getBytes(String str) {
+			return str==null ? 0 : 40 + 2L*str.length();
+		}
+		static long getBytes(int[] values) {
+			return values==null ? 0 : 16 + 4L*values.length;
+		}
+	}
+
+	private static class AreaChange extends Entry {
+		private final Area area;
+		private final int[] oldShape, newShape;
+		private final String oldTitle, newTitle;
+		private final String oldOnclick, newOnclick;
+		private final boolean titleChanged, onclickChanged;
+
+		AreaChange(Area area, int[] oldShape, int[] newShape, String oldTitle, String newTitle, boolean titleChanged, String oldOnclick, String newOnclick, boolean onclickChanged) {
+			this.area = area;
+			this.oldShape = oldShape;
+			this.newShape = newShape;
+			this.oldTitle = oldTitle;
+			this.newTitle = newTitle;
+			this.titleChanged = titleChanged;
+			this.oldOnclick = oldOnclick;
+			this.newOnclick = newOnclick;
+			this.onclickChanged = onclickChanged;
+		}
+
+		@Override void undo(AreaListModel model) { apply(model, oldShape, oldTitle, oldOnclick); }
+		@Override void redo(AreaListModel model) { apply(model, newShape, newTitle, newOnclick); }
+
+		private void apply(AreaListModel model, int[] shape, String title, String onclick) {
+			if (shape!=null) area.shape = unpack(shape);
+			if (titleChanged) area.title = title;
+			if (onclickChanged) area.onclick = onclick;
+			model.notifyAreaChanged(area);
+		}
+
+		@Override long getBytes() {
+			return 48 + getBytes(oldShape) + getBytes(newShape) + getBytes(oldTitle) + getBytes(newTitle) + getBytes(oldOnclick) + getBytes(newOnclick);
+		}
+
+		@Override String getName() {
+			if (newShape==null) return "Edit Area";
+			if (oldShape[0]!=newShape[0]) return "Switch Shape Type";
+			return "Change Shape";
+		}
+	}
+
+	/**
+	 * Areas at sorted positions. Undo / redo inserts or removes all of them in one bulk operation.
+	 */
+	private static class Insertion extends Entry {
+		private final int[] indices;
+		private final Area[] areas;
+		private final boolean isAddition;
+
+		Insertion(int[] indices, Area[] areas, boolean isAddition) {
+			this.indices = indices;
+			this.areas = areas;
+			this.isAddition = isAddition;
+		}
+
+		@Override void undo(AreaListModel model) { if (isAddition) model.remove(indices); else model.insert(indices, areas); }
+		@Override void redo(AreaListModel model) { if (isAddition) model.insert(indices, areas); else model.remove(indices); }
+
+		@Override long getBytes() {
+			long bytes = 48 + getBytes(indices) + 16 + 4L*areas.length;
+			if (!isAddition) // removed areas are only held by the journal
+				for (Area area : areas)
+					bytes += 80 + getBytes(area.title) + getBytes(area.onclick);
+			return bytes;
+		}
+
+		@Override String getName() {
+			String action = isAddition ? "Add" : "Remove";
+			return areas.length==1 ? action+" Area" : String.format("%s %d Areas", action, areas.length);
+		}
+	}
+}
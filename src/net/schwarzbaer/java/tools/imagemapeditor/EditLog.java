@@ -0,0 +1,599 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+import net.schwarzbaer.java.tools.imagemapeditor.ImageMapEditor.AreaListModel;
+
+/**
+ * Crash safe autosave of an {@link AreaListModel}.<br>
+ * The log listens to the coalesced events of the model, which describe each change completely.
+ * On the event dispatch thread a change only becomes a record with copies of the affected areas;
+ * a background thread appends it to the log file and syncs the file at most every {@link #SYNC_INTERVAL_MS}.
+ * Successive changes of the same single area (e.g. while dragging) are merged, while they wait in the queue.
+ * <p>
+ * The writer thread keeps its own copy of all areas. When the log grows larger than the last checkpoint,
+ * it writes a new checkpoint ({@link ProjectFile}) and starts a new log, so replaying stays cheap.
+ * Files of generation {@code n}: {@code autosave-n.imep} (checkpoint) and {@code autosave-n.imel} (log of changes after it).
+ * Each record is stored with length and CRC, so replaying stops at a record, that was only partly written.
+ * <pre>
+ * log file: int magic ("IMEL"), int version, records: int length, int crc, byte op, payload
+ * </pre>
+ */
+class EditLog implements ListDataListener {
+	private static final int MAGIC   = 0x494D454C;
+	private static final int VERSION = 1;
+	private static final long SYNC_INTERVAL_MS = 500;
+	private static final long MIN_CHECKPOINT_LOG_SIZE = 1<<20;
+	private static final String FILE_PREFIX = "autosave-";
+	private static final String LOG_EXTENSION = "imel";
+
+	private static final int OP_RESET  = 0; // only in queue, becomes a checkpoint
+	private static final int OP_ADD    = 1;
+	private static final int OP_REMOVE = 2;
+	private static final int OP_SET    = 3;
+	private static final int OP_IMAGE  = 4;
+	private static final int OP_REMOVE_AT = 5;
+	private static final int OP_INSERT_AT = 6;
+
+	private static final int AREA_CIRCLE = 0;
+	private static final int AREA_RECT   = 1;
+
+	private final File folder;
+	private final AreaListModel model;
+	private final FileChannel lockChannel;
+	private final FileLock lock;
+	private final ArrayDeque<Record> queue;
+	private final Thread writer;
+	private boolean isClosed;
+
+	// used by writer thread only
+	private final State state;
+	private final ProjectFile.Buffer buffer;
+	private final CRC32 crc;
+	private int generation;
+	private FileChannel logChannel;
+	private long logBytes;
+	private long checkpointBytes;
+
+	private EditLog(File folder, AreaListModel model, FileChannel lockChannel, FileLock lock, int generation) {
+		this.folder = folder;
+		this.model = model;
+		this.lockChannel = lockChannel;
+		this.lock = lock;
+		this.generation = generation;
+		queue = new ArrayDeque<>();
+		isClosed = false;
+		state = new State();
+		buffer = new ProjectFile.Buffer(1<<16);
+		crc = new CRC32();
+		logChannel = null;
+		logBytes = 0;
+		checkpointBytes = 0;
+		writer = new Thread(this::writeRecords, "EditLog.Writer");
+		writer.setDaemon(true);
+	}
+
+	static File getDefaultFolder() {
+		return new File(System.getProperty("user.home"), ".ImageMapEditor");
+	}
+
+	/**
+	 * Starts logging all changes of {@code model} into {@code folder}. Files of former sessions in this folder are deleted.<br>
+	 * Returns {@code null}, if the folder is used by another editor or can't be written.
+	 */
+	static EditLog start(File folder, AreaListModel model, File imageFile, String imageURL) {
+		FileChannel lockChannel = null;
+		try {
+			folder.mkdirs();
+			lockChannel = FileChannel.open(new File(folder, FILE_PREFIX+"lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			FileLock lock = tryLock(lockChannel);
+			if (lock==null) {
+				System.err.printf("Autosave folder \"%s\" is used by another editor -> no autosave%n", folder.getAbsolutePath());
+				lockChannel.close();
+				return null;
+			}
+			EditLog log = new EditLog(folder, model, lockChannel, lock, getLastGeneration(folder)+1);
+			log.enqueue(new Record(OP_RESET, 0, 0, copyAreas(model, 0, model.getSize()-1), imageFile, imageURL));
+			model.addListDataListener(log);
+			log.writer.start();
+			return log;
+		} catch (IOException e) {
+			System.err.printf("IOException while starting autosave in folder \"%s\": %s%n", folder.getAbsolutePath(), e.getMessage());
+			if (lockChannel!=null) try { lockChannel.close(); } catch (IOException e1) {}
+			return null;
+		}
+	}
+
+	/**
+	 * Stops logging and waits for the writer thread. If {@code deleteFiles}, the log and checkpoint files are deleted (regular end of a session).
+	 */
+	void close(boolean deleteFiles) {
+		model.removeListDataListener(this);
+		synchronized (queue) {
+			isClosed = true;
+			queue.notifyAll();
+		}
+		try { writer.join(5000); }
+		catch (InterruptedException e) {}
+		if (deleteFiles && !writer.isAlive())
+			deleteFiles(folder, -1);
+		try {
+			lock.release();
+			lockChannel.close();
+		} catch (IOException e) {}
+	}
+
+	void setImage(File imageFile, String imageURL) {
+		enqueue(new Record(OP_IMAGE, 0, 0, null, imageFile, imageURL));
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	//   recording (event dispatch thread)
+
+	private static class Record {
+		final int op;
+		final int first;
+		final int last;
+		final int[] indices;
+		final Area[] areas;
+		final File imageFile;
+		final String imageURL;
+
+		Record(int op, int first, int last, Area[] areas, File imageFile, String imageURL) {
+			this(op, first, last, null, areas, imageFile, imageURL);
+		}
+		Record(int op, int[] indices, Area[] areas) {
+			this(op, 0, 0, indices, areas, null, null);
+		}
+		private Record(int op, int first, int last, int[] indices, Area[] areas, File imageFile, String imageURL) {
+			this.op = op;
+			this.first = first;
+			this.last = last;
+			this.indices = indices;
+			this.areas = areas;
+			this.imageFile = imageFile;
+			this.imageURL = imageURL;
+		}
+	}
+
+	private static Area[] copyAreas(AreaListModel model, int first, int last) {
+		Area[] areas = new Area[Math.max(0, last-first+1)];
+		for (int i=0; i<areas.length; i++)
+			areas[i] = new Area(model.getElementAt(first+i));
+		return areas;
+	}
+
+	private static Area[] copyAreas(AreaListModel model, int[] indices) {
+		Area[] areas = new Area[indices.length];
+		for (int i=0; i<areas.length; i++)
+			areas[i] = new Area(model.getElementAt(indices[i]));
+		return areas;
+	}
+
+	// scattered removals and insertions are logged with their exact positions, instead of the whole reported ranges
+	@Override public void intervalAdded(ListDataEvent e) {
+		if (e instanceof AreaListModel.ScatteredEvent) {
+			AreaListModel.ScatteredEvent se = (AreaListModel.ScatteredEvent) e;
+			if (se.isInsertion) enqueue(new Record(OP_INSERT_AT, se.indices, copyAreas(model, se.indices)));
+		} else
+			enqueue(new Record(OP_ADD, e.getIndex0(), e.getIndex1(), copyAreas(model, e.getIndex0(), e.getIndex1()), null, null));
+	}
+	@Override public void intervalRemoved(ListDataEvent e) {
+		if (e instanceof AreaListModel.ScatteredEvent) {
+			AreaListModel.ScatteredEvent se = (AreaListModel.ScatteredEvent) e;
+			if (!se.isInsertion) enqueue(new Record(OP_REMOVE_AT, se.indices, null));
+		} else
+			enqueue(new Record(OP_REMOVE, e.getIndex0(), e.getIndex1(), null, null, null));
+	}
+	@Override public void contentsChanged(ListDataEvent e) { enqueue(new Record(OP_SET   , e.getIndex0(), e.getIndex1(), copyAreas(model, e.getIndex0(), e.getIndex1()), null, null)); }
+
+	private void enqueue(Record record) {
+		synchronized (queue) {
+			if (isClosed) return;
+			Record last = queue.peekLast();
+			if (last!=null && record.op==OP_SET && last.op==OP_SET && record.first==record.last && last.first==record.first && last.last==record.last)
+				queue.pollLast(); // replaced by a newer state of the same area
+			queue.addLast(record);
+			queue.notifyAll();
+		}
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	//   writing (writer thread)
+
+	private void writeRecords() {
+		long lastSync = System.currentTimeMillis();
+		boolean isDirty = false;
+		ArrayList<Record> batch = new ArrayList<>();
+		try {
+			while (true) {
+				boolean closed;
+				synchronized (queue) {
+					while (queue.isEmpty() && !isClosed) {
+						long waitTime = isDirty ? lastSync+SYNC_INTERVAL_MS-System.currentTimeMillis() : 0;
+						if (isDirty && waitTime<=0) break;
+						queue.wait(waitTime);
+					}
+					batch.addAll(queue);
+					queue.clear();
+					closed = isClosed;
+				}
+
+				for (Record record : batch) {
+					if (record.op==OP_RESET) {
+						state.apply(record);
+						writeCheckpoint();
+					} else {
+						appendRecord(record);
+						state.apply(record);
+						isDirty = true;
+					}
+				}
+				batch.clear();
+				flushBuffer();
+
+				long now = System.currentTimeMillis();
+				if (isDirty && (closed || now-lastSync>=SYNC_INTERVAL_MS)) {
+					logChannel.force(false);
+					lastSync = now;
+					isDirty = false;
+				}
+				if (logBytes > Math.max(MIN_CHECKPOINT_LOG_SIZE, checkpointBytes)) {
+					writeCheckpoint();
+					isDirty = false;
+				}
+				if (closed) break;
+			}
+		} catch (IOException e) {
+			System.err.printf("IOException while writing autosave into folder \"%s\" -> autosave stopped: %s%n", folder.getAbsolutePath(), e.getMessage());
+			synchronized (queue) {
+				isClosed = true;
+				queue.clear();
+			}
+		} catch (InterruptedException e) {
+		} finally {
+			if (logChannel!=null) try { logChannel.close(); } catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Writes all areas into a new checkpoint, starts a new (empty) log and deletes the files of the former generation.<br>
+	 * The former files are only deleted, after the new ones are synced to disk.
+	 */
+	private void writeCheckpoint() throws IOException {
+		flushBuffer();
+		generation++;
+		File checkpointFile = getCheckpointFile(folder, generation);
+		ProjectFile.write(checkpointFile, state.imageFile, state.imageURL, null, state.areas);
+		checkpointBytes = checkpointFile.length();
+
+		if (logChannel!=null) logChannel.close();
+		logChannel = FileChannel.open(getLogFile(folder, generation).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		flushBuffer();
+		logChannel.force(false);
+		logBytes = 0;
+
+		syncFolder(folder);
+		deleteFiles(folder, generation);
+	}
+
+	private void appendRecord(Record record) throws IOException {
+		int start = buffer.length;
+		buffer.putInt(0);
+		buffer.putInt(0);
+		buffer.putByte(record.op);
+		switch (record.op) {
+		case OP_ADD:
+		case OP_SET:
+			buffer.putVarInt(record.first);
+			buffer.putVarInt(record.areas.length);
+			for (Area area : record.areas)
+				putArea(area);
+			break;
+		case OP_REMOVE:
+			buffer.putVarInt(record.first);
+			buffer.putVarInt(record.last);
+			break;
+		case OP_REMOVE_AT:
+		case OP_INSERT_AT:
+			buffer.putVarInt(record.indices.length);
+			for (int i=0; i<record.indices.length; i++) // ascending -> delta encoded
+				buffer.putVarInt(i==0 ? record.indices[0] : record.indices[i]-record.indices[i-1]);
+			if (record.op==OP_INSERT_AT)
+				for (Area area : record.areas)
+					putArea(area);
+			break;
+		case OP_IMAGE:
+			buffer.putByte(record.imageFile!=null ? 1 : record.imageURL!=null ? 2 : 0);
+			if (record.imageFile!=null) putString(record.imageFile.getAbsolutePath());
+			else if (record.imageURL!=null) putString(record.imageURL);
+			break;
+		}
+		int payloadStart = start+8;
+		crc.reset();
+		crc.update(buffer.bytes, payloadStart, buffer.length-payloadStart);
+		buffer.setInt(start  , buffer.length-payloadStart);
+		buffer.setInt(start+4, (int) crc.getValue());
+		if (buffer.length > 1<<16) flushBuffer();
+	}
+
+	private void putArea(Area area) {
+		Area.Shape shape = area.shape;
+		switch (shape.type) {
+		case Circle:
+			buffer.putByte(AREA_CIRCLE);
+			buffer.putZigZag(shape.center.x);
+			buffer.putZigZag(shape.center.y);
+			buffer.putZigZag(shape.radius);
+			break;
+		case Rect:
+			buffer.putByte(AREA_RECT);
+			buffer.putZigZag(shape.corner1.x);
+			buffer.putZigZag(shape.corner1.y);
+			buffer.putZigZag(shape.corner2.x-shape.corner1.x);
+			buffer.putZigZag(shape.corner2.y-shape.corner1.y);
+			break;
+		}
+		putString(area.title);
+		putString(area.onclick);
+	}
+
+	private void putString(String str) {
+		if (str==null) buffer.putVarInt(0);
+		else {
+			buffer.putVarInt(1);
+			buffer.putString(str);
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (buffer.length==0) return;
+		ByteBuffer bytes = ByteBuffer.wrap(buffer.bytes, 0, buffer.length);
+		while (bytes.hasRemaining())
+			logChannel.write(bytes);
+		logBytes += buffer.length;
+		buffer.length = 0;
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	//   recovery
+
+	/**
+	 * Returns the areas and image of the last session in {@code folder}, that wasn't closed regularly,
+	 * or {@code null}, if there is none or it's still running in another editor.
+	 */
+	static ProjectFile findUnclosedSession(File folder) throws IOException {
+		int generation = getLastGeneration(folder);
+		if (generation<0) return null;
+
+		File lockFile = new File(folder, FILE_PREFIX+"lock");
+		try (FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			FileLock lock = tryLock(lockChannel);
+			if (lock==null) return null;
+			try {
+				return replay(folder, generation);
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	private static ProjectFile replay(File folder, int generation) throws IOException {
+		ProjectFile checkpoint = ProjectFile.read(getCheckpointFile(folder, generation));
+		State state = new State();
+		state.areas.addAll(Arrays.asList(checkpoint.areas));
+		state.imageFile = checkpoint.imageFile;
+		state.imageURL = checkpoint.imageURL;
+
+		File logFile = getLogFile(folder, generation);
+		if (logFile.isFile())
+			try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+				ByteBuffer buffer = ProjectFile.readFully(channel); // not mapped, the file is deleted with the next checkpoint
+				if (buffer.remaining()>=8 && buffer.getInt()==MAGIC && buffer.getInt()<=VERSION) {
+					CRC32 crc = new CRC32();
+					byte[] payload = new byte[256];
+					while (buffer.remaining()>=8) {
+						int length = buffer.getInt();
+						int checksum = buffer.getInt();
+						if (length<=0 || length>buffer.remaining()) break; // incomplete record
+						if (payload.length<length) payload = new byte[Math.max(length, payload.length*2)];
+						buffer.get(payload, 0, length);
+						crc.reset();
+						crc.update(payload, 0, length);
+						if ((int) crc.getValue()!=checksum) break;
+						try {
+							state.apply(readRecord(ByteBuffer.wrap(payload, 0, length)));
+						} catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+							throw new IOException("Corrupt record in log file", e);
+						}
+					}
+				}
+			}
+
+		return new ProjectFile(state.imageFile, state.imageURL, null, state.areas.toArray(new Area[state.areas.size()]));
+	}
+
+	private static Record readRecord(ByteBuffer payload) throws IOException {
+		int op = payload.get();
+		switch (op) {
+		case OP_ADD:
+		case OP_SET:
+			int first = ProjectFile.getVarInt(payload);
+			Area[] areas = new Area[ProjectFile.getVarInt(payload)];
+			for (int i=0; i<areas.length; i++)
+				areas[i] = readArea(payload);
+			return new Record(op, first, first+areas.length-1, areas, null, null);
+		case OP_REMOVE:
+			return new Record(op, ProjectFile.getVarInt(payload), ProjectFile.getVarInt(payload), null, null, null);
+		case OP_REMOVE_AT:
+		case OP_INSERT_AT:
+			int[] indices = new int[ProjectFile.getVarInt(payload)];
+			for (int i=0; i<indices.length; i++)
+				indices[i] = (i==0 ? 0 : indices[i-1]) + ProjectFile.getVarInt(payload);
+			Area[] inserted = null;
+			if (op==OP_INSERT_AT) {
+				inserted = new Area[indices.length];
+				for (int i=0; i<inserted.length; i++)
+					inserted[i] = readArea(payload);
+			}
+			return new Record(op, indices, inserted);
+		case OP_IMAGE:
+			int kind = payload.get();
+			String str = kind==0 ? null : readString(payload);
+			return new Record(op, 0, 0, null, kind==1 ? new File(str) : null, kind==2 ? str : null);
+		}
+		throw new IOException(String.format("Unknown record type %d", op));
+	}
+
+	private static Area readArea(ByteBuffer payload) throws IOException {
+		int type = payload.get();
+		Area.Shape shape;
+		switch (type) {
+		case AREA_CIRCLE:
+			shape = new Area.Shape(new Point(ProjectFile.getZigZag(payload), ProjectFile.getZigZag(payload)), ProjectFile.getZigZag(payload));
+			break;
+		case AREA_RECT:
+			int x = ProjectFile.getZigZag(payload);
+			int y = ProjectFile.getZigZag(payload);
+			shape = new Area.Shape(new Point(x, y), new Point(x+ProjectFile.getZigZag(payload), y+ProjectFile.getZigZag(payload)));
+			break;
+		default:
+			throw new IOException(String.format("Unknown area type %d", type));
+		}
+		String title = readString(payload);
+		String onclick = readString(payload);
+		return new Area(shape, title, onclick);
+	}
+
+	private static String readString(ByteBuffer payload) throws IOException {
+		if (ProjectFile.getVarInt(payload)==0) return null;
+		byte[] bytes = new byte[ProjectFile.getVarInt(payload)];
+		payload.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Areas and image as they are after all records applied so far.
+	 */
+	private static class State {
+		final ArrayList<Area> areas = new ArrayList<>();
+		File imageFile = null;
+		String imageURL = null;
+
+		void apply(Record record) throws IOException {
+			switch (record.op) {
+			case OP_RESET:
+				areas.clear();
+				areas.addAll(Arrays.asList(record.areas));
+				imageFile = record.imageFile;
+				imageURL = record.imageURL;
+				break;
+			case OP_ADD:
+				if (record.first<0 || record.first>areas.size()) throw new IOException("Wrong position of added areas");
+				areas.addAll(record.first, Arrays.asList(record.areas));
+				break;
+			case OP_REMOVE:
+				if (record.first<0 || record.last>=areas.size() || record.first>record.last) throw new IOException("Wrong range of removed areas");
+				areas.subList(record.first, record.last+1).clear();
+				break;
+			case OP_SET:
+				if (record.first<0 || record.first+record.areas.length>areas.size()) throw new IOException("Wrong position of changed areas");
+				for (int i=0; i<record.areas.length; i++)
+					areas.set(record.first+i, record.areas[i]);
+				break;
+			case OP_REMOVE_AT: {
+				int[] indices = record.indices;
+				int write = 0;
+				for (int read=0, r=0; read<areas.size(); read++) {
+					if (r<indices.length && indices[r]==read) { r++; continue; }
+					areas.set(write++, areas.get(read));
+				}
+				if (areas.size()-write != indices.length) throw new IOException("Wrong positions of removed areas");
+				areas.subList(write, areas.size()).clear();
+			} break;
+			case OP_INSERT_AT: {
+				int[] indices = record.indices;
+				int newSize = areas.size()+indices.length;
+				if (indices.length>0 && indices[indices.length-1]>=newSize) throw new IOException("Wrong positions of inserted areas");
+				ArrayList<Area> result = new ArrayList<>(newSize);
+				for (int write=0, read=0, r=0; write<newSize; write++)
+					result.add(r<indices.length && indices[r]==write ? record.areas[r++] : areas.get(read++));
+				areas.clear();
+				areas.addAll(result);
+			} break;
+			case OP_IMAGE:
+				imageFile = record.imageFile;
+				imageURL = record.imageURL;
+				break;
+			}
+		}
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	//   files
+
+	private static FileLock tryLock(FileChannel channel) throws IOException {
+		try { return channel.tryLock(); }
+		catch (OverlappingFileLockException e) { return null; } // locked by another editor in this JVM
+	}
+
+	private static File getCheckpointFile(File folder, int generation) { return new File(folder, FILE_PREFIX+generation+"."+ProjectFile.EXTENSION); }
+	private static File getLogFile       (File folder, int generation) { return new File(folder, FILE_PREFIX+generation+"."+LOG_EXTENSION); }
+
+	/**
+	 * Returns the highest generation with a checkpoint or -1.
+	 */
+	private static int getLastGeneration(File folder) {
+		int last = -1;
+		String[] names = folder.list();
+		if (names==null) return last;
+		String suffix = "."+ProjectFile.EXTENSION;
+		for (String name : names)
+			if (name.startsWith(FILE_PREFIX) && name.endsWith(suffix))
+				try { last = Math.max(last, Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length()-suffix.length()))); }
+				catch (NumberFormatException e) {}
+		return last;
+	}
+
+	/**
+	 * Syncs the entries of {@code folder} (new and moved files) to disk.
+	 * That isn't possible on all platforms (e.g. Windows), there the file system has to keep the order of its operations.
+	 */
+	private static void syncFolder(File folder) {
+		try (FileChannel channel = FileChannel.open(folder.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * Deletes all checkpoint and log files except those of {@code keptGeneration}.
+	 */
+	private static void deleteFiles(File folder, int keptGeneration) {
+		File[] files = folder.listFiles();
+		if (files==null) return;
+		String kept = FILE_PREFIX+keptGeneration+".";
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(FILE_PREFIX) && !name.startsWith(kept) && (name.endsWith("."+ProjectFile.EXTENSION) || name.endsWith("."+LOG_EXTENSION)))
+				file.delete();
+		}
+	}
+}
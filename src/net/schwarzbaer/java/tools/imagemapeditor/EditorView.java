@@ -1,18 +1,38 @@
 package net.schwarzbaer.java.tools.imagemapeditor;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
+import java.awt.DisplayMode;
+import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import javax.swing.JList;
 import javax.swing.JPopupMenu;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 
 import net.schwarzbaer.java.lib.gui.ZoomableCanvas;
 import net.schwarzbaer.java.tools.imagemapeditor.ImageMapEditor.AreaListModel;
@@ -22,20 +42,47 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 	private static final Color COLOR_AXIS = new Color(0x70000000,true);
 	private static final Color COLOR_AREA = new Color(0xA0808080,true);
 	private static final Color COLOR_HIGHLIGHTED_AREA = Color.WHITE;
+	private static final int HANDLE_POINT_RADIUS = 3;
+	private static final Color COLOR_LATENCY_OVERLAY_BG = new Color(0xA0000000,true);
+	private static final Font FONT_LATENCY_OVERLAY = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+	private static final int MIN_BAND_HEIGHT = 16;
+	private static final int BANDS_PER_THREAD = 4;
+	private static ForkJoinPool bandPool = null;
 	
 	private final JList<Area> areaList;
 	private final AreaListModel areaListModel;
-	private BufferedImage image;
+	private final EditJournal journal;
+	private TileSource imageTiles;
+	private ImagePyramid sharedPyramid;
+	private final Runnable tilesChangedListener;
 	private AreaEditing areaEditing;
 	private ContextMenu contextMenu;
+	private final AreaIndex.Nearest nearest;
+	private int canvasX0;
+	private int canvasY0;
+	private final InputScheduler inputScheduler;
+	private final AreaLayer areaLayer;
+	private final ImageLayer imageLayer;
+	private boolean showLatencyOverlay;
 
-	EditorView(int width, int height, JList<Area> areaList, AreaListModel areaListModel) { this(null, width, height, areaList, areaListModel); }
-	EditorView(BufferedImage image, int width, int height, JList<Area> areaList, AreaListModel areaListModel) {
-		this.image = image;
+	EditorView(int width, int height, JList<Area> areaList, AreaListModel areaListModel, EditJournal journal) { this(null, width, height, areaList, areaListModel, journal); }
+	EditorView(BufferedImage image, int width, int height, JList<Area> areaList, AreaListModel areaListModel, EditJournal journal) {
+		this.tilesChangedListener = this::tilesChanged;
+		this.sharedPyramid = null;
+		this.imageTiles = createImagePyramid(image, image==null ? 0 : image.getWidth(), image==null ? 0 : image.getHeight());
 		this.areaList = areaList;
 		this.areaListModel = areaListModel;
+		this.journal = journal;
 		areaEditing = null;
 		contextMenu = null;
+		nearest = new AreaIndex.Nearest();
+		canvasX0 = 0;
+		canvasY0 = 0;
+		inputScheduler = new InputScheduler();
+		areaLayer = new AreaLayer();
+		imageLayer = new ImageLayer();
+		areaListModel.addListDataListener(areaLayer);
+		showLatencyOverlay = false;
 		
 		setPreferredSize(width, height);
 		activateMapScale(COLOR_AXIS, "px", true);
@@ -48,10 +95,39 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 		return areaEditing.area==area;
 	}
 	
+	void setLatencyOverlay(boolean show) {
+		showLatencyOverlay = show;
+		repaint();
+	}
+	
 	boolean isViewStateOK() {
 		return viewState.isOk();
 	}
 	
+	/**
+	 * Returns center x, center y and scale (screen pixels per image pixel) of the current view or {@code null}, if the view isn't set up.
+	 */
+	double[] getView() {
+		if (!viewState.isOk()) return null;
+		return viewState.getView();
+	}
+	
+	/**
+	 * Shows the map point ({@code view[0]},{@code view[1]}) in the middle of the canvas with a scale of {@code view[2]}.
+	 * Starts from the default view ({@link #reset()}), so an invalid view (not finite, scale not positive) leaves the default view.
+	 */
+	void setView(double[] view) {
+		if (view==null || view.length<3) return;
+		reset();
+		if (!viewState.isOk() || !isValidView(view[0], view[1], view[2])) return;
+		viewState.setView(view[0], view[1], view[2]);
+		repaint();
+	}
+	
+	static boolean isValidView(double centerX, double centerY, double scale) {
+		return Double.isFinite(centerX) && Double.isFinite(centerY) && Double.isFinite(scale) && scale>0;
+	}
+	
 	static class ContextMenu extends JPopupMenu {
 		private static final long serialVersionUID = 3266076470264574143L;
 		
@@ -80,11 +156,72 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 	}
 	
 	void setImage(BufferedImage image) {
-		this.image = image;
-		reset();
+		setImage(image, image==null ? 0 : image.getWidth(), image==null ? 0 : image.getHeight());
+	}
+	
+	/**
+	 * Sets an image, that is shown with a size of {@code width} x {@code height} pixels.
+	 * Area coordinates always refer to this size, even if {@code image} is only a reduced preview.
+	 */
+	void setImage(BufferedImage image, int width, int height) {
+		setImage(createImagePyramid(image, width, height), false);
+	}
+	
+	void setImage(TileSource imageTiles, boolean keepView) {
+		releaseImage();
+		this.imageTiles = imageTiles;
+		if (keepView) repaint();
+		else reset();
+	}
+	
+	/**
+	 * Shows a pyramid, that is shared with other views (see {@link ImageMapEditor.MapImage#getImagePyramid()}).
+	 * It's not canceled, when this view shows another image.
+	 */
+	void setSharedImage(ImagePyramid pyramid, boolean keepView) {
+		setImage(pyramid, keepView);
+		sharedPyramid = pyramid;
+		sharedPyramid.addLevelAddedListener(tilesChangedListener);
+	}
+	
+	/**
+	 * Stops the background work for the current image or detaches this view from a shared pyramid.
+	 */
+	void releaseImage() {
+		if (sharedPyramid!=null) sharedPyramid.removeLevelAddedListener(tilesChangedListener);
+		else if (imageTiles!=null) imageTiles.cancel();
+		sharedPyramid = null;
+		imageTiles = null;
+		areaLayer.flush();
+		imageLayer.flush();
+	}
+	
+	/**
+	 * Has to be called, if the {@link TileSource} got new tiles or levels.
+	 */
+	void tilesChanged() {
+		imageLayer.flush();
+		repaint();
+	}
+	
+	private ImagePyramid createImagePyramid(BufferedImage image, int width, int height) {
+		if (image==null) return null;
+		ImagePyramid pyramid = new ImagePyramid(image, width, height, tilesChangedListener);
+		pyramid.startBuilding();
+		return pyramid;
 	}
 	
 	private void setHighlightedArea(Point p) {
+		Latency.Sample sample = Latency.HIGHLIGHT.begin();
+		try {
+			updateHighlightedArea(p);
+		} finally {
+			sample.finish();
+		}
+	}
+	
+	private void updateHighlightedArea(Point p) {
+		Rectangle oldBounds = getEditingBounds();
 		Area nearestArea = null;
 		
 		float pX = Float.NaN;
@@ -93,19 +230,10 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 			pX = (float) viewState.convertPos_ScreenToAngle_LongX(p.x);
 			pY = (float) viewState.convertPos_ScreenToAngle_LatY(p.y);
 			
-			AreaEditing.DistanceResult min = null;
-			for (Area area : areaListModel) {
-				AreaEditing.DistanceResult res = AreaEditing.computeDistance(area,pX,pY);
-				if (min==null || min.distance>res.distance) {
-					min = res;
-					nearestArea = area;
-				}
-			}
-			
-			if (min!=null) {
-				Double val = viewState.convertLength_LengthToScreenF((double) min.distance);
-				float distance_scr = val.floatValue(); 
-				if (distance_scr > AreaEditing.MIN_HIGHLIGHT_AREA_DISTANCE_SCR && !min.isInside) nearestArea = null;
+			float maxDist = (float) viewState.convertLength_ScreenToLength(AreaEditing.MIN_HIGHLIGHT_AREA_DISTANCE_SCR);
+			if (areaListModel.areaIndex.findNearest(pX, pY, maxDist, nearest)) {
+				nearestArea = nearest.area;
+				if (nearest.distanceSq > maxDist*maxDist && !nearest.isInside) nearestArea = null;
 			}
 		}
 		
@@ -114,7 +242,7 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 			mustRepaint = true;
 		} else {
 			mustRepaint = areaEditing!=null || nearestArea!=null;
-			areaEditing = AreaEditing.createFor(areaListModel, nearestArea);
+			areaEditing = AreaEditing.createFor(areaListModel, journal, nearestArea);
 		}
 		
 		if (areaEditing!=null) {
@@ -123,54 +251,133 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 		}
 		
 		if (mustRepaint) {
-			repaint();
+			repaintEditingBounds(oldBounds);
 			areaList.repaint();
 		}
 	}
 	
+	/**
+	 * Has to be called after a change of the selection in the {@link AreaListModel} between {@code first} and {@code last}.
+	 */
+	void selectionChanged(int first, int last) {
+		areaLayer.selectionChanged(first, last);
+		repaint();
+	}
+	
+	/**
+	 * Enables or disables the {@link DensityRaster} for small areas in zoomed out views.
+	 */
+	void setLevelOfDetail(boolean enabled) {
+		areaLayer.setLevelOfDetail(enabled);
+		repaint();
+	}
+	
+	/**
+	 * Renders the outlines of all areas in horizontal bands on all cores (see {@link #paintStaticAreasInBands(BufferedImage, Area)})
+	 * or on the EDT (default).
+	 */
+	void setParallelRendering(boolean enabled) {
+		areaLayer.setParallelRendering(enabled);
+		repaint();
+	}
+	
+	/**
+	 * Forces a complete repaint of all area outlines with the next frame.
+	 */
+	void invalidateAreaLayer() {
+		areaLayer.invalidate();
+	}
+	
+	/**
+	 * Drops the editing state of the highlighted area, e.g. after its shape was replaced by an undo.
+	 * The next mouse move highlights an area again.
+	 */
+	void resetEditing() {
+		areaEditing = null;
+		repaint();
+	}
+	
+	/**
+	 * Returns the screen bounds (in component coordinates) of the currently highlighted area and its handle points,
+	 * or {@code null}, if no area is highlighted.
+	 */
+	private Rectangle getEditingBounds() {
+		if (areaEditing==null || !viewState.isOk()) return null;
+		Rectangle rect = getScreenBounds(areaEditing.area);
+		if (rect==null) return null;
+		areaEditing.forEachPoint((hp,isHighlighted)->{
+			if (!hp.isVisible) return;
+			rect.add(viewState.convertPos_AngleToScreen_LongX(hp.x), viewState.convertPos_AngleToScreen_LatY(hp.y));
+		});
+		int margin = HANDLE_POINT_RADIUS+2; // handle points + antialiasing
+		rect.grow(margin, margin);
+		rect.translate(canvasX0, canvasY0);
+		return rect;
+	}
+	
+	private void repaintEditingBounds(Rectangle oldBounds) {
+		Rectangle newBounds = getEditingBounds();
+		if (oldBounds==null) {
+			if (newBounds!=null) repaint(newBounds);
+			return;
+		}
+		if (newBounds!=null) oldBounds.add(newBounds);
+		repaint(oldBounds);
+	}
+	
+	private Rectangle getScreenBounds(Area area) {
+		if (area.shape==null) return null;
+		switch (area.shape.type) {
+		case Circle:
+			int cX = viewState.convertPos_AngleToScreen_LongX(area.shape.center.x);
+			int cY = viewState.convertPos_AngleToScreen_LatY (area.shape.center.y);
+			int r  = viewState.convertLength_LengthToScreen((double) area.shape.radius);
+			return new Rectangle(cX-r, cY-r, 2*r+1, 2*r+1);
+		case Rect:
+			int c1X = viewState.convertPos_AngleToScreen_LongX(area.shape.corner1.x);
+			int c1Y = viewState.convertPos_AngleToScreen_LatY (area.shape.corner1.y);
+			int w  = viewState.convertLength_LengthToScreen((double) (area.shape.corner2.x-area.shape.corner1.x+1));
+			int h  = viewState.convertLength_LengthToScreen((double) (area.shape.corner2.y-area.shape.corner1.y+1));
+			return new Rectangle(c1X, c1Y, w+1, h+1);
+		}
+		return null;
+	}
+	
 	private static abstract class AreaEditing {
 		public static final float MIN_HIGHLIGHT_AREA_DISTANCE_SCR = 30.0f;
 		public static final float MIN_HIGHLIGHT_HPOINT_DISTANCE_SCR = 5.0f;
 		
-		static class DistanceResult {
-			final float distance;
-			final boolean isInside;
-			private DistanceResult(float distance, boolean isInside) {
-				this.distance = distance;
-				this.isInside = isInside;
-			}
-		}
-		
-		static DistanceResult computeDistance(Area area, float pX, float pY) {
-			switch (area.shape.type) {
-			case Circle: return CircleEditing.computeDistanceToCircle(area, pX, pY);
-			case   Rect: return   RectEditing.computeDistanceToRect  (area, pX, pY);
-			}
-			throw new IllegalStateException();
-		}
-
-		static AreaEditing createFor(AreaListModel areaListModel, Area area) {
+		static AreaEditing createFor(AreaListModel areaListModel, EditJournal journal, Area area) {
 			if (area==null) return null;
 			switch (area.shape.type) {
-			case Circle: return new CircleEditing(areaListModel, area);
-			case   Rect: return new   RectEditing(areaListModel, area);
+			case Circle: return new CircleEditing(areaListModel, journal, area);
+			case   Rect: return new   RectEditing(areaListModel, journal, area);
 			}
 			throw new IllegalStateException();
 		}
 		
 		private final AreaListModel areaListModel;
+		private final EditJournal journal;
 		protected final Area area;
 		protected final HandlePoint[] handlePoints;
 		protected int highlightedHPindex;
+		private int[] shapeBeforeDragging;
 		
-		protected AreaEditing(AreaListModel areaListModel, Area area, HandlePoint... handlePoints) {
+		protected AreaEditing(AreaListModel areaListModel, EditJournal journal, Area area, HandlePoint... handlePoints) {
 			this.areaListModel = areaListModel;
+			this.journal = journal;
 			this.area = area;
 			this.handlePoints = handlePoints;
 			highlightedHPindex = -1;
+			shapeBeforeDragging = null;
 		}
 
 		abstract void setMousePoint(float pX, float pY, float minDist);
+		
+		boolean isDragging() {
+			return shapeBeforeDragging!=null;
+		}
+		
 //		abstract boolean onEntered (MouseEvent e);
 //		abstract boolean onMoved   (MouseEvent e);
 //		abstract boolean onExited  (MouseEvent e);
@@ -185,6 +392,7 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 			float minDist = (float) viewState.convertLength_ScreenToLength(MIN_HIGHLIGHT_HPOINT_DISTANCE_SCR);
 			setMousePoint(pX, pY, minDist);
 			if (highlightedHPindex<0) return;
+			shapeBeforeDragging = EditJournal.pack(area.shape);
 			startDragging(pX,pY);
 		}
 
@@ -194,13 +402,21 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 			float pY = (float) viewState.convertPos_ScreenToAngle_LatY (p.y);
 			stopDragging(pX,pY);
 			areaListModel.notifyAreaChanged(area);
+			if (shapeBeforeDragging!=null && journal!=null)
+				journal.recordChange(area, shapeBeforeDragging); // the whole drag gesture becomes one entry
+			shapeBeforeDragging = null;
 		}
 		void onDragged (MouseEvent e, ViewState viewState) {
-			Point p = e.getPoint();
-			float pX = (float) viewState.convertPos_ScreenToAngle_LongX(p.x);
-			float pY = (float) viewState.convertPos_ScreenToAngle_LatY (p.y);
-			dragging(pX,pY);
-			areaListModel.notifyAreaChanged(area);
+			Latency.Sample sample = Latency.DRAG.begin();
+			try {
+				Point p = e.getPoint();
+				float pX = (float) viewState.convertPos_ScreenToAngle_LongX(p.x);
+				float pY = (float) viewState.convertPos_ScreenToAngle_LatY (p.y);
+				dragging(pX,pY);
+				areaListModel.notifyAreaChanged(area);
+			} finally {
+				sample.finish();
+			}
 		}
 		
 		interface HandlePointAction {
@@ -241,18 +457,10 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 			private float dragOffsetX;
 			private float dragOffsetY;
 			
-			CircleEditing(AreaListModel areaListModel, Area area) {
-				super(areaListModel, area, new HandlePoint(area.shape.center), new HandlePoint(area.shape.center, false));
+			CircleEditing(AreaListModel areaListModel, EditJournal journal, Area area) {
+				super(areaListModel, journal, area, new HandlePoint(area.shape.center), new HandlePoint(area.shape.center, false));
 			}
 
-			public static DistanceResult computeDistanceToCircle(Area area, float pX, float pY) {
-				int cX = area.shape.center.x;
-				int cY = area.shape.center.y;
-				double d1 = Math.sqrt((cX-pX)*(cX-pX)+(cY-pY)*(cY-pY));
-				double d2 = Math.abs(d1-area.shape.radius);
-				return new DistanceResult((float) Math.min(d1,d2), d1<=area.shape.radius);
-			}
-			
 			@Override void setMousePoint(float pX, float pY, float minDist) {
 				int cX = area.shape.center.x;
 				int cY = area.shape.center.y;
@@ -313,8 +521,8 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 			private float dragOffsetX;
 			private float dragOffsetY;
 			
-			RectEditing(AreaListModel areaListModel, Area area) {
-				super(areaListModel, area, createHPs(area));
+			RectEditing(AreaListModel areaListModel, EditJournal journal, Area area) {
+				super(areaListModel, journal, area, createHPs(area));
 			}
 
 			private static HandlePoint[] createHPs(Area area) {
@@ -338,21 +546,6 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 				return handlePoints;
 			}
 
-			public static DistanceResult computeDistanceToRect(Area area, float pX, float pY) {
-				int c1X = area.shape.corner1.x;
-				int c1Y = area.shape.corner1.y;
-				int c2X = area.shape.corner2.x+1;
-				int c2Y = area.shape.corner2.y+1;
-				double mX = (c1X+c2X)/2.0;
-				double mY = (c1Y+c2Y)/2.0;
-				double d = Math.sqrt((mX-pX)*(mX-pX)+(mY-pY)*(mY-pY));
-				d = Math.min(d, Math.sqrt((c1X-pX)*(c1X-pX)+(c1Y-pY)*(c1Y-pY)));
-				d = Math.min(d, Math.sqrt((c1X-pX)*(c1X-pX)+(c2Y-pY)*(c2Y-pY)));
-				d = Math.min(d, Math.sqrt((c2X-pX)*(c2X-pX)+(c2Y-pY)*(c2Y-pY)));
-				d = Math.min(d, Math.sqrt((c2X-pX)*(c2X-pX)+(c1Y-pY)*(c1Y-pY)));
-				return new DistanceResult( (float) d, c1X<=pX && pX<=c2X && c1Y<=pY && pY<=c2Y);
-			}
-			
 			@Override void setMousePoint(float pX, float pY, float minDist) {
 				int c1X = area.shape.corner1.x;
 				int c1Y = area.shape.corner1.y;
@@ -418,13 +611,111 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 	}
 	
 	
-	@Override public void mouseEntered (MouseEvent e) { setHighlightedArea(e.getPoint()); /* if (areaEditing!=null) areaEditing.onEntered (e); */ }
-	@Override public void mouseMoved   (MouseEvent e) { setHighlightedArea(e.getPoint()); /* if (areaEditing!=null) areaEditing.onMoved   (e); */ }
-	@Override public void mouseExited  (MouseEvent e) { setHighlightedArea((Point)null ); /* if (areaEditing!=null) areaEditing.onExited  (e); */ }
+	/**
+	 * Coalesces mouse moves and drags to the latest position and processes them at most once per display frame.
+	 */
+	private class InputScheduler {
+		private static final int DEFAULT_REFRESH_RATE = 60;
+		
+		private final long framePeriodNanos;
+		private final Timer timer;
+		private Point pendingMove;
+		private MouseEvent pendingDrag;
+		private long lastFlushNanos;
+		private long receivedEvents;
+		private long processedEvents;
+		
+		InputScheduler() {
+			framePeriodNanos = 1000000000L / getDisplayRefreshRate();
+			timer = new Timer(0, e->flush());
+			timer.setRepeats(false);
+			pendingMove = null;
+			pendingDrag = null;
+			lastFlushNanos = System.nanoTime()-framePeriodNanos;
+			receivedEvents = 0;
+			processedEvents = 0;
+		}
+		
+		private int getDisplayRefreshRate() {
+			try {
+				int refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+				if (refreshRate!=DisplayMode.REFRESH_RATE_UNKNOWN) return refreshRate;
+			} catch (HeadlessException e) {}
+			return DEFAULT_REFRESH_RATE;
+		}
+		
+		void moved(Point p) {
+			receivedEvents++;
+			pendingMove = p;
+			schedule();
+		}
+		
+		void dragged(MouseEvent e) {
+			receivedEvents++;
+			pendingDrag = e;
+			schedule();
+		}
+		
+		private void schedule() {
+			if (timer.isRunning()) return;
+			long waitNanos = framePeriodNanos - (System.nanoTime()-lastFlushNanos);
+			if (waitNanos<=0) { flush(); return; }
+			timer.setInitialDelay((int) Math.max(1, waitNanos/1000000));
+			timer.start();
+		}
+		
+		void flush() {
+			timer.stop();
+			if (pendingDrag==null && pendingMove==null) return;
+			lastFlushNanos = System.nanoTime();
+			if (pendingDrag!=null) {
+				MouseEvent e = pendingDrag;
+				pendingDrag = null;
+				processedEvents++;
+				if (areaEditing!=null) { Rectangle oldBounds = getEditingBounds(); areaEditing.onDragged(e, viewState); repaintEditingBounds(oldBounds); }
+			}
+			if (pendingMove!=null) {
+				Point p = pendingMove;
+				pendingMove = null;
+				processedEvents++;
+				setHighlightedArea(p);
+			}
+		}
+		
+		void discard() {
+			timer.stop();
+			pendingMove = null;
+			pendingDrag = null;
+		}
+		
+		double getCoalescingRatio() {
+			return processedEvents==0 ? 1.0 : receivedEvents/(double)processedEvents;
+		}
+		
+		void resetCounts() {
+			receivedEvents = 0;
+			processedEvents = 0;
+		}
+	}
+	
+	/**
+	 * Returns the ratio of received to processed mouse move and drag events (shown in the latency overlay).
+	 */
+	double getInputCoalescingRatio() {
+		return inputScheduler.getCoalescingRatio();
+	}
 	
-	@Override public void mousePressed (MouseEvent e) { if (areaEditing!=null) { areaEditing.onPressed (e, viewState); repaint(); } }
-	@Override public void mouseReleased(MouseEvent e) { if (areaEditing!=null) { areaEditing.onReleased(e, viewState); repaint(); } }
-	@Override public void mouseDragged (MouseEvent e) { if (areaEditing!=null) { areaEditing.onDragged (e, viewState); repaint(); } }
+	void resetInputCoalescing() {
+		inputScheduler.resetCounts();
+	}
+	
+	@Override public void mouseEntered (MouseEvent e) { inputScheduler.moved(e.getPoint()); /* if (areaEditing!=null) areaEditing.onEntered (e); */ }
+	@Override public void mouseMoved   (MouseEvent e) { inputScheduler.moved(e.getPoint()); /* if (areaEditing!=null) areaEditing.onMoved   (e); */ }
+	@Override public void mouseExited  (MouseEvent e) { inputScheduler.discard(); setHighlightedArea((Point)null ); /* if (areaEditing!=null) areaEditing.onExited  (e); */ }
+	
+	@Override public void mousePressed (MouseEvent e) { inputScheduler.flush(); if (areaEditing!=null) { Rectangle oldBounds = getEditingBounds(); areaEditing.onPressed (e, viewState); repaintEditingBounds(oldBounds); } }
+	@Override public void mouseReleased(MouseEvent e) { inputScheduler.discard(); if (areaEditing!=null) { Rectangle oldBounds = getEditingBounds(); areaEditing.onReleased(e, viewState); repaintEditingBounds(oldBounds); } }
+	@Override public void mouseDragged (MouseEvent e) { if (areaEditing!=null) inputScheduler.dragged(e); }
 	
 	@Override public void mouseClicked (MouseEvent e) {
 		if (contextMenu!=null && e.getButton()==MouseEvent.BUTTON3) {
@@ -447,51 +738,644 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 	
 	@Override
 	protected void paintCanvas(Graphics g, int x, int y, int width, int height) {
-		
+		Latency.Sample sample = Latency.PAINT.begin();
+		try {
+			paintFrame(g, x, y, width, height);
+		} finally {
+			sample.finish();
+		}
+		if (showLatencyOverlay && g instanceof Graphics2D) {
+			Rectangle overlay = paintLatencyOverlay((Graphics2D) g, x, y);
+			// a partial repaint (hover, drag) updates only a part of the overlay -> repaint the rest
+			Rectangle clip = g.getClipBounds();
+			if (clip!=null && !clip.contains(overlay)) repaint(overlay);
+		}
+	}
+	
+	private void paintFrame(Graphics g, int x, int y, int width, int height) {
 		if (g instanceof Graphics2D && viewState.isOk()) {
 			Graphics2D g2 = (Graphics2D) g;
-			g2.setClip(x, y, width, height);
+			g2.clipRect(x, y, width, height); // keeps the dirty region of a partial repaint
+			canvasX0 = x;
+			canvasY0 = y;
 			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 			g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
 			
-			if (image!=null) {
+			if (imageTiles!=null) {
 				int imageX      = viewState.convertPos_AngleToScreen_LongX(0);
 				int imageY      = viewState.convertPos_AngleToScreen_LatY (0);
-				int imageWidth  = viewState.convertPos_AngleToScreen_LongX(image.getWidth ()) - imageX;
-				int imageHeight = viewState.convertPos_AngleToScreen_LatY (image.getHeight()) - imageY;
+				int imageScreenWidth  = viewState.convertPos_AngleToScreen_LongX(imageTiles.getWidth ()) - imageX;
+				int imageScreenHeight = viewState.convertPos_AngleToScreen_LatY (imageTiles.getHeight()) - imageY;
 				
 				g2.setColor(COLOR_AXIS);
 				g2.drawLine(x+imageX, y, x+imageX, y+height);
 				g2.drawLine(x, y+imageY, x+width, y+imageY);
-				g2.drawLine(x+imageX+imageWidth, y, x+imageX+imageWidth, y+height);
-				g2.drawLine(x, y+imageY+imageHeight, x+width, y+imageY+imageHeight);
+				g2.drawLine(x+imageX+imageScreenWidth, y, x+imageX+imageScreenWidth, y+height);
+				g2.drawLine(x, y+imageY+imageScreenHeight, x+width, y+imageY+imageScreenHeight);
 				
-				g2.drawImage(image, x+imageX, y+imageY, imageWidth+1, imageHeight+1, null);
+				paintImage(g2, x, y, width, height);
 			}
 			
-			paintAreas(g2, x, y);
+			paintAreas(g2, x, y, width, height);
 			drawMapDecoration(g2, x, y, width, height);
 		}
 	}
 
-	private void paintAreas(Graphics2D g2, int x0, int y0) {
-		g2.setColor(COLOR_AREA);
-		areaListModel.forEach((area,isSelected)->{
-			if (!isSelected && (areaEditing==null || areaEditing.area!=area))
-				paintArea(g2, x0, y0, area);
-		});
-		g2.setColor(COLOR_HIGHLIGHTED_AREA);
-		areaListModel.forEach((area,isSelected)->{
-			if (isSelected && (areaEditing==null || areaEditing.area!=area))
-				paintArea(g2, x0, y0, area);
+	/**
+	 * Paints p50 / p99 of the frame time and p99 of hover and drag handling, measured by {@link Latency},
+	 * and the number of mouse events per processed update ({@link #getInputCoalescingRatio()}).
+	 * The current frame is not included. Returns the bounds of the overlay.
+	 */
+	private Rectangle paintLatencyOverlay(Graphics2D g2, int x0, int y0) {
+		String[] lines = {
+			String.format("frame  p50 %s  p99 %s  (%d)", Latency.formatNanos(Latency.PAINT.histogram.getPercentile(0.5)), Latency.formatNanos(Latency.PAINT.histogram.getPercentile(0.99)), Latency.PAINT.histogram.getCount()),
+			String.format("hover  p99 %s", Latency.formatNanos(Latency.HIGHLIGHT.histogram.getPercentile(0.99))),
+			String.format("drag   p99 %s", Latency.formatNanos(Latency.DRAG.histogram.getPercentile(0.99))),
+			String.format("input  %1.1f events / update", getInputCoalescingRatio()),
+		};
+		g2.setFont(FONT_LATENCY_OVERLAY);
+		FontMetrics fm = g2.getFontMetrics();
+		int w = 0;
+		for (String line : lines) w = Math.max(w, fm.stringWidth(line));
+		int lineHeight = fm.getHeight();
+		int boxX = x0+10;
+		int boxY = y0+10;
+		Rectangle box = new Rectangle(boxX, boxY, w+10, lines.length*lineHeight+6);
+		g2.setColor(COLOR_LATENCY_OVERLAY_BG);
+		g2.fillRect(box.x, box.y, box.width, box.height);
+		g2.setColor(Color.WHITE);
+		for (int i=0; i<lines.length; i++)
+			g2.drawString(lines[i], boxX+5, boxY+3+i*lineHeight+fm.getAscent());
+		return box;
+	}
+	
+	private void paintImage(Graphics2D g2, int x0, int y0, int width, int height) {
+		if (imageTiles==null) return;
+		if (imageLayer.paint(g2, x0, y0, width, height)) return;
+		paintImageTiles(g2, x0, y0);
+	}
+
+	private void paintImageTiles(Graphics2D g2, int x0, int y0) {
+		Rectangle clip = g2.getClipBounds();
+		double minX = viewState.convertPos_ScreenToAngle_LongX(clip.x-x0);
+		double minY = viewState.convertPos_ScreenToAngle_LatY (clip.y-y0);
+		double maxX = viewState.convertPos_ScreenToAngle_LongX(clip.x-x0+clip.width );
+		double maxY = viewState.convertPos_ScreenToAngle_LatY (clip.y-y0+clip.height);
+		int level = imageTiles.getLevel(viewState.convertLength_LengthToScreenF(1.0));
+		imageTiles.forEachTile(level, minX, minY, maxX, maxY, (tile, tx0, ty0, tx1, ty1)->{
+			int sx0 = viewState.convertPos_AngleToScreen_LongX(tx0);
+			int sy0 = viewState.convertPos_AngleToScreen_LatY (ty0);
+			int sx1 = viewState.convertPos_AngleToScreen_LongX(tx1);
+			int sy1 = viewState.convertPos_AngleToScreen_LatY (ty1);
+			g2.drawImage(tile, x0+sx0, y0+sy0, sx1-sx0, sy1-sy0, null);
 		});
+	}
+
+	/**
+	 * Pre-scaled copy of the image around the visible region for the current scale.<br>
+	 * Pan frames only blit it (via a {@link VolatileImage}, if there is a {@link GraphicsConfiguration}).
+	 * After a change of the scale, or if the visible region leaves the cached region, frames are painted from the tiles
+	 * until a {@link Builder} has scaled the new region in the background.
+	 * The cached region reaches half a view size beyond the visible region in each direction (limited to the image),
+	 * so a zoomed out image is cached completely.
+	 * New tiles of the {@link TileSource} drop the cached copy (see {@link EditorView#tilesChanged()}).
+	 * Only sources with all tiles in memory are cached. Scaling a region beyond the visible one would make a {@link RegionImage}
+	 * decode tiles, that may push the visible ones out of its cache.
+	 */
+	private class ImageLayer {
+		private BufferedImage image;
+		private VolatileImage volatileImage;
+		private boolean isVolatileImageValid;
+		private TileSource tiles;
+		private double scale;
+		private int level;
+		private Rectangle region; // in pixels of the scaled image
+		private Builder builder;
+		
+		ImageLayer() {
+			image = null;
+			volatileImage = null;
+			isVolatileImageValid = false;
+			tiles = null;
+			scale = 0;
+			level = 0;
+			region = null;
+			builder = null;
+		}
+		
+		/**
+		 * Returns {@code true}, if the cached copy was painted, or {@code false}, if the image has to be painted from the tiles.
+		 */
+		boolean paint(Graphics2D g2, int x0, int y0, int width, int height) {
+			if (!imageTiles.isInMemory()) return false;
+			double scale = viewState.convertLength_LengthToScreenF(1.0);
+			int level = imageTiles.getLevel(scale);
+			int imageX = viewState.convertPos_AngleToScreen_LongX(0);
+			int imageY = viewState.convertPos_AngleToScreen_LatY (0);
+			Rectangle bounds = new Rectangle(0, 0, (int) Math.round(imageTiles.getWidth()*scale), (int) Math.round(imageTiles.getHeight()*scale));
+			Rectangle visible = bounds.intersection(new Rectangle(-imageX, -imageY, width, height));
+			if (visible.isEmpty()) return false;
+			
+			if (image!=null && tiles==imageTiles && this.scale==scale && this.level==level && region.contains(visible)) {
+				blit(g2, x0+imageX+region.x, y0+imageY+region.y);
+				return true;
+			}
+			
+			if (builder==null || !builder.canPaint(imageTiles, scale, level, visible)) {
+				if (builder!=null) builder.cancel(false);
+				Rectangle region = new Rectangle(visible);
+				region.grow(width/2, height/2);
+				builder = new Builder(imageTiles, scale, level, bounds.intersection(region));
+				builder.execute();
+			}
+			return false;
+		}
+		
+		private void blit(Graphics2D g2, int x, int y) {
+			GraphicsConfiguration gc = getGraphicsConfiguration();
+			if (gc==null) {
+				g2.drawImage(image, x, y, null);
+				return;
+			}
+			do {
+				if (volatileImage==null || volatileImage.getWidth()!=image.getWidth() || volatileImage.getHeight()!=image.getHeight())
+					createVolatileImage(gc);
+				int status = volatileImage.validate(gc);
+				if (status==VolatileImage.IMAGE_INCOMPATIBLE) createVolatileImage(gc);
+				if (status==VolatileImage.IMAGE_RESTORED) isVolatileImageValid = false;
+				if (!isVolatileImageValid) {
+					Graphics2D vg2 = volatileImage.createGraphics();
+					vg2.setComposite(AlphaComposite.Src);
+					vg2.drawImage(image, 0, 0, null);
+					vg2.dispose();
+					isVolatileImageValid = true;
+				}
+				g2.drawImage(volatileImage, x, y, null);
+			} while (volatileImage.contentsLost());
+		}
+		
+		private void createVolatileImage(GraphicsConfiguration gc) {
+			if (volatileImage!=null) volatileImage.flush();
+			volatileImage = gc.createCompatibleVolatileImage(image.getWidth(), image.getHeight(), image.getTransparency());
+			isVolatileImageValid = false;
+		}
+		
+		void flush() {
+			if (builder!=null) builder.cancel(false);
+			builder = null;
+			if (volatileImage!=null) volatileImage.flush();
+			volatileImage = null;
+			isVolatileImageValid = false;
+			image = null;
+			tiles = null;
+			region = null;
+		}
+		
+		private void set(Builder builder, BufferedImage image) {
+			flush();
+			this.image = image;
+			this.tiles = builder.tiles;
+			this.scale = builder.scale;
+			this.level = builder.level;
+			this.region = builder.region;
+		}
+		
+		private class Builder extends SwingWorker<BufferedImage,Object> {
+			private final TileSource tiles;
+			private final double scale;
+			private final int level;
+			private final Rectangle region;
+			
+			Builder(TileSource tiles, double scale, int level, Rectangle region) {
+				this.tiles = tiles;
+				this.scale = scale;
+				this.level = level;
+				this.region = region;
+			}
+			
+			boolean canPaint(TileSource tiles, double scale, int level, Rectangle visible) {
+				return this.tiles==tiles && this.scale==scale && this.level==level && region.contains(visible);
+			}
+			
+			@Override protected BufferedImage doInBackground() throws Exception {
+				// the region is covered by tiles completely, so the copy is opaque, if the tiles are
+				BufferedImage[] image = new BufferedImage[1];
+				Graphics2D[] g2 = new Graphics2D[1];
+				tiles.forEachTile(level, region.x/scale, region.y/scale, (region.x+region.width)/scale, (region.y+region.height)/scale, (tile, tx0, ty0, tx1, ty1)->{
+					if (isCancelled()) return;
+					if (image[0]==null) {
+						image[0] = new BufferedImage(region.width, region.height, tile.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB);
+						g2[0] = image[0].createGraphics();
+						g2[0].setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+					}
+					int sx0 = (int) Math.round(tx0*scale);
+					int sy0 = (int) Math.round(ty0*scale);
+					int sx1 = (int) Math.round(tx1*scale);
+					int sy1 = (int) Math.round(ty1*scale);
+					g2[0].drawImage(tile, sx0-region.x, sy0-region.y, sx1-sx0, sy1-sy0, null);
+				});
+				if (g2[0]!=null) g2[0].dispose();
+				if (image[0]==null || isCancelled()) return null;
+				return image[0];
+			}
+			
+			@Override protected void done() {
+				if (builder!=this) return;
+				builder = null;
+				if (isCancelled()) return;
+				try {
+					BufferedImage image = get();
+					if (image==null) return;
+					set(this, image);
+				} catch (InterruptedException | ExecutionException e) {
+					System.err.printf("%s while scaling the image: %s%n", e.getClass().getSimpleName(), e.getMessage());
+					return;
+				}
+				repaint();
+			}
+		}
+	}
+
+	void paintAreas(Graphics2D g2, int x0, int y0, int width, int height) {
+		areaLayer.paint(g2, x0, y0, width, height, areaEditing!=null && areaEditing.isDragging() ? areaEditing.area : null);
 		if (areaEditing!=null) {
 			g2.setColor(COLOR_HIGHLIGHTED_AREA);
-			paintArea(g2, x0, y0, areaEditing.area);
+			paintArea(g2, x0, y0, g2.getClipBounds(), areaEditing.area);
 			paintHandlePoints(g2, x0, y0);
 		}
 	}
-	private void paintArea(Graphics2D g2, int x0, int y0, Area area) {
+	/**
+	 * Paints the outlines of all areas except {@code excludedArea}: unselected areas first, selected areas on top.
+	 */
+	private void paintStaticAreas(Graphics2D g2, int x0, int y0, Area excludedArea) {
+		Rectangle clip = g2.getClipBounds();
+		DensityRaster densityRaster = areaLayer.getDensityRaster();
+		if (densityRaster!=null)
+			paintDensityRaster(g2, x0, y0, densityRaster);
+		
+		g2.setColor(COLOR_AREA);
+		if (densityRaster!=null) {
+			for (Area area : densityRaster.largeAreas)
+				if (area!=excludedArea && !areaListModel.isSelected(area))
+					paintArea(g2, x0, y0, clip, area);
+		} else
+			forEachVisibleArea(x0, y0, clip, (area,isSelected)->{
+				if (!isSelected && area!=excludedArea)
+					paintArea(g2, x0, y0, clip, area);
+			});
+		g2.setColor(COLOR_HIGHLIGHTED_AREA);
+		forEachVisibleArea(x0, y0, clip, (area,isSelected)->{
+			if (isSelected && area!=excludedArea)
+				paintArea(g2, x0, y0, clip, area);
+		});
+	}
+	
+	private void paintDensityRaster(Graphics2D g2, int x0, int y0, DensityRaster densityRaster) {
+		int[] bounds = getScreenBounds(densityRaster);
+		densityRaster.paint(g2, x0+bounds[0], y0+bounds[1], x0+bounds[2], y0+bounds[3]);
+	}
+	
+	/**
+	 * Returns the screen coordinates ({@code x0, y0, x1, y1}) of the corners of {@code densityRaster}.
+	 */
+	private int[] getScreenBounds(DensityRaster densityRaster) {
+		return new int[] {
+			viewState.convertPos_AngleToScreen_LongX(densityRaster.originX),
+			viewState.convertPos_AngleToScreen_LatY (densityRaster.originY),
+			viewState.convertPos_AngleToScreen_LongX(densityRaster.originX+(long)densityRaster.columns*densityRaster.cellSize),
+			viewState.convertPos_AngleToScreen_LatY (densityRaster.originY+(long)densityRaster.rows   *densityRaster.cellSize),
+		};
+	}
+	
+	/**
+	 * Paints the same as {@link #paintStaticAreas(Graphics2D, int, int, Area)} into {@code image}.<br>
+	 * The image is split into horizontal bands, that are rendered in parallel into their own slice of the image.
+	 * Everything, that isn't thread safe (area index, caches of rasters, view state), is done before on the calling thread:
+	 * the visible areas are collected, converted to screen coordinates and sorted into the bands, so each band only draws its own shapes.
+	 */
+	private void paintStaticAreasInBands(BufferedImage image, Area excludedArea) {
+		int width  = image.getWidth();
+		int height = image.getHeight();
+		Rectangle clip = new Rectangle(0, 0, width, height);
+		DensityRaster densityRaster = areaLayer.getDensityRaster();
+		int[] rasterBounds = densityRaster==null ? null : getScreenBounds(densityRaster);
+		
+		if (bandPool==null) bandPool = new ForkJoinPool();
+		int bandCount = Math.max(1, Math.min(bandPool.getParallelism()*BANDS_PER_THREAD, height/MIN_BAND_HEIGHT));
+		int bandHeight = (height+bandCount-1)/bandCount;
+		Band[] bands = new Band[(height+bandHeight-1)/bandHeight];
+		for (int i=0; i<bands.length; i++)
+			bands[i] = new Band(image.getSubimage(0, i*bandHeight, width, Math.min(bandHeight, height-i*bandHeight)), i*bandHeight);
+		
+		if (densityRaster!=null)
+			for (Area area : densityRaster.largeAreas)
+				if (area!=excludedArea && !areaListModel.isSelected(area))
+					addToBands(bands, bandHeight, area, false);
+		forEachVisibleArea(0, 0, clip, (area,isSelected)->{
+			if (area!=excludedArea && (isSelected || densityRaster==null))
+				addToBands(bands, bandHeight, area, isSelected);
+		});
+		
+		ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[bands.length];
+		for (int i=0; i<bands.length; i++) {
+			Band band = bands[i];
+			tasks[i] = bandPool.submit(()->paintBand(band, densityRaster, rasterBounds));
+		}
+		for (ForkJoinTask<?> task : tasks)
+			task.join();
+	}
+	
+	private void addToBands(Band[] bands, int bandHeight, Area area, boolean isSelected) {
+		if (area.shape==null) return;
+		ScreenShape shape;
+		switch (area.shape.type) {
+		case Circle:
+			int cX = viewState.convertPos_AngleToScreen_LongX(area.shape.center.x);
+			int cY = viewState.convertPos_AngleToScreen_LatY (area.shape.center.y);
+			int r  = viewState.convertLength_LengthToScreen((double) area.shape.radius);
+			shape = new ScreenShape(true, cX-r, cY-r, 2*r, 2*r);
+			break;
+		case Rect:
+			int c1X = viewState.convertPos_AngleToScreen_LongX(area.shape.corner1.x);
+			int c1Y = viewState.convertPos_AngleToScreen_LatY (area.shape.corner1.y);
+			int w  = viewState.convertLength_LengthToScreen((double) (area.shape.corner2.x-area.shape.corner1.x+1));
+			int h  = viewState.convertLength_LengthToScreen((double) (area.shape.corner2.y-area.shape.corner1.y+1));
+			shape = new ScreenShape(false, c1X, c1Y, w, h);
+			break;
+		default:
+			return;
+		}
+		// 1px for line width and antialiasing, like isOutside
+		int first = Math.max(Math.floorDiv(shape.y-1, bandHeight), 0);
+		int last  = Math.min(Math.floorDiv(shape.y+shape.height+1, bandHeight), bands.length-1);
+		for (int i=first; i<=last; i++)
+			(isSelected ? bands[i].selected : bands[i].unselected).add(shape);
+	}
+	
+	/**
+	 * Runs on a thread of {@link #bandPool}. Doesn't touch the view state: all screen coordinates were computed by the calling thread.
+	 */
+	private static void paintBand(Band band, DensityRaster densityRaster, int[] rasterBounds) {
+		Graphics2D g2 = band.image.createGraphics();
+		try {
+			int width  = band.image.getWidth();
+			int height = band.image.getHeight();
+			g2.setComposite(AlphaComposite.Clear);
+			g2.fillRect(0, 0, width, height);
+			g2.setComposite(AlphaComposite.SrcOver);
+			g2.setClip(0, 0, width, height);
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			Rectangle clip = g2.getClipBounds();
+			int y0 = -band.y;
+			
+			if (densityRaster!=null)
+				densityRaster.paint(g2, rasterBounds[0], y0+rasterBounds[1], rasterBounds[2], y0+rasterBounds[3]);
+			g2.setColor(COLOR_AREA);
+			for (ScreenShape shape : band.unselected)
+				shape.draw(g2, y0, clip);
+			g2.setColor(COLOR_HIGHLIGHTED_AREA);
+			for (ScreenShape shape : band.selected)
+				shape.draw(g2, y0, clip);
+		} finally {
+			g2.dispose();
+		}
+	}
+	
+	private static class Band {
+		final BufferedImage image;
+		final int y;
+		final Vector<ScreenShape> unselected;
+		final Vector<ScreenShape> selected;
+		
+		Band(BufferedImage image, int y) {
+			this.image = image;
+			this.y = y;
+			unselected = new Vector<>();
+			selected = new Vector<>();
+		}
+	}
+	
+	/**
+	 * Outline of an area in screen coordinates, drawn like {@link EditorView#paintArea(Graphics2D, int, int, Rectangle, Area)}.
+	 */
+	private static class ScreenShape {
+		final boolean isCircle;
+		final int x;
+		final int y;
+		final int width;
+		final int height;
+		
+		ScreenShape(boolean isCircle, int x, int y, int width, int height) {
+			this.isCircle = isCircle;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+		
+		void draw(Graphics2D g2, int y0, Rectangle clip) {
+			if (isOutside(clip, x, y0+y, width, height)) return;
+			if (isCircle) g2.drawOval(x, y0+y, width, height);
+			else          g2.drawRect(x, y0+y, width, height);
+		}
+	}
+	
+	/**
+	 * Gives the areas, that intersect the map region under {@code clip}, to {@code action}.
+	 * Areas outside aren't touched at all, unless the region is too large for the {@link AreaIndex} (e.g. the whole map is visible).
+	 * Then all areas are given to {@code action}.
+	 */
+	private void forEachVisibleArea(int x0, int y0, Rectangle clip, AreaListModel.AreaAction action) {
+		if (clip!=null) {
+			double margin = viewState.convertLength_ScreenToLength(2); // line width + antialiasing
+			double x1 = viewState.convertPos_ScreenToAngle_LongX(clip.x-x0);
+			double y1 = viewState.convertPos_ScreenToAngle_LatY (clip.y-y0);
+			double x2 = viewState.convertPos_ScreenToAngle_LongX(clip.x-x0+clip.width );
+			double y2 = viewState.convertPos_ScreenToAngle_LatY (clip.y-y0+clip.height);
+			if (areaListModel.forEachIntersecting(Math.min(x1,x2)-margin, Math.min(y1,y2)-margin, Math.max(x1,x2)+margin, Math.max(y1,y2)+margin, action))
+				return;
+		}
+		areaListModel.forEach(action);
+	}
+	
+	/**
+	 * Offscreen buffer with the outlines of all areas (see {@link EditorView#paintStaticAreas(Graphics2D, int, int, Area)}) for the current view.<br>
+	 * The highlighted area stays in the buffer, so hovering doesn't touch it. Only an area, that is dragged, is left out,
+	 * because it changes with every drag step.
+	 * The buffer is painted again after a change of the model (except changes of the excluded area) or of the selection,
+	 * after zooming or panning, or if the content of the {@link VolatileImage} was lost.
+	 * Without a {@link GraphicsConfiguration} (e.g. headless) a {@link BufferedImage} is used.
+	 * <p>
+	 * In zoomed out views, small areas are painted as {@link DensityRaster}, if level of detail is enabled.
+	 * Rasters are kept for all cell sizes used so far (zooming back doesn't build them again).
+	 * Changes of single areas or of the selection are applied to them, they are only dropped, if areas are added or removed.
+	 * <p>
+	 * With parallel rendering, the buffer is always a {@link BufferedImage}, that is painted by {@link EditorView#paintStaticAreasInBands(BufferedImage, Area)}.
+	 */
+	private class AreaLayer implements ListDataListener {
+		private VolatileImage volatileImage;
+		private BufferedImage bufferedImage;
+		private boolean isValid;
+		private int width;
+		private int height;
+		private double[] view;
+		private Area excludedArea;
+		private final HashMap<Integer,DensityRaster> densityRasters;
+		private boolean isLevelOfDetailEnabled;
+		private boolean isParallelRenderingEnabled;
+		
+		AreaLayer() {
+			volatileImage = null;
+			bufferedImage = null;
+			isValid = false;
+			width = 0;
+			height = 0;
+			view = null;
+			excludedArea = null;
+			densityRasters = new HashMap<>();
+			isLevelOfDetailEnabled = true;
+			isParallelRenderingEnabled = false;
+		}
+		
+		void invalidate() {
+			isValid = false;
+		}
+		
+		void setLevelOfDetail(boolean enabled) {
+			isLevelOfDetailEnabled = enabled;
+			densityRasters.clear();
+			isValid = false;
+		}
+		
+		/**
+		 * Returns the raster for the current scale or {@code null}, if all areas are painted as outlines.
+		 */
+		DensityRaster getDensityRaster() {
+			if (!isLevelOfDetailEnabled) return null;
+			int cellSize = DensityRaster.getCellSize(viewState.convertLength_LengthToScreenF(1.0));
+			if (cellSize<2) return null;
+			DensityRaster densityRaster = densityRasters.get(cellSize);
+			if (densityRaster==null) {
+				densityRaster = DensityRaster.build(areaListModel, cellSize, excludedArea);
+				densityRasters.put(cellSize, densityRaster);
+			}
+			return densityRaster.image==null ? null : densityRaster;
+		}
+		
+		void setParallelRendering(boolean enabled) {
+			isParallelRenderingEnabled = enabled;
+			isValid = false;
+		}
+		
+		void selectionChanged(int first, int last) {
+			invalidate();
+			updateDensityRasters(first, last);
+		}
+		
+		/**
+		 * Applies changes of the areas between {@code first} and {@code last} to all rasters or drops those, that have to be built again.
+		 */
+		private void updateDensityRasters(int first, int last) {
+			first = Math.max(first, 0);
+			last = Math.min(last, areaListModel.getSize()-1);
+			Iterator<DensityRaster> iterator = densityRasters.values().iterator();
+			while (iterator.hasNext()) {
+				DensityRaster densityRaster = iterator.next();
+				for (int i=first; i<=last; i++) {
+					Area area = areaListModel.getElementAt(i);
+					if (!densityRaster.update(i, area, area==excludedArea || areaListModel.isSelected(i))) {
+						iterator.remove();
+						break;
+					}
+				}
+			}
+		}
+		
+		@Override public void intervalAdded  (ListDataEvent e) { isValid = false; densityRasters.clear(); }
+		@Override public void intervalRemoved(ListDataEvent e) { isValid = false; densityRasters.clear(); }
+		@Override public void contentsChanged(ListDataEvent e) {
+			// drag steps only change the excluded area, which is neither in the buffer nor in the rasters
+			if (excludedArea!=null && e.getIndex0()==e.getIndex1() && e.getIndex0()>=0 && e.getIndex0()<areaListModel.getSize() && areaListModel.getElementAt(e.getIndex0())==excludedArea)
+				return;
+			invalidate();
+			updateDensityRasters(e.getIndex0(), e.getIndex1());
+		}
+		
+		void paint(Graphics2D g2, int x0, int y0, int width, int height, Area excludedArea) {
+			if (width<=0 || height<=0) return;
+			double[] view = viewState.getView();
+			if (width!=this.width || height!=this.height || !Arrays.equals(view, this.view) || excludedArea!=this.excludedArea) {
+				this.view = view;
+				if (excludedArea!=this.excludedArea) {
+					Area oldExcludedArea = this.excludedArea;
+					this.excludedArea = excludedArea;
+					// the old one is counted again at its new position, the new one is left out
+					if (oldExcludedArea!=null) { int i = areaListModel.indexOf(oldExcludedArea); updateDensityRasters(i, i); }
+					if (   excludedArea!=null) { int i = areaListModel.indexOf(   excludedArea); updateDensityRasters(i, i); }
+				}
+				isValid = false;
+			}
+			
+			GraphicsConfiguration gc = getGraphicsConfiguration();
+			if (gc==null || isParallelRenderingEnabled) {
+				if (volatileImage!=null) { volatileImage.flush(); volatileImage = null; }
+				if (bufferedImage==null || width!=this.width || height!=this.height) {
+					bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+					setSize(width, height);
+				}
+				if (!isValid && isParallelRenderingEnabled) {
+					paintStaticAreasInBands(bufferedImage, excludedArea);
+					isValid = true;
+				}
+				if (!isValid) render(bufferedImage.createGraphics());
+				g2.drawImage(bufferedImage, x0, y0, null);
+				return;
+			}
+			
+			bufferedImage = null;
+			do {
+				if (volatileImage==null || width!=this.width || height!=this.height)
+					createVolatileImage(gc, width, height);
+				int status = volatileImage.validate(gc);
+				if (status==VolatileImage.IMAGE_INCOMPATIBLE) createVolatileImage(gc, width, height);
+				if (status==VolatileImage.IMAGE_RESTORED) isValid = false;
+				if (!isValid) render(volatileImage.createGraphics());
+				g2.drawImage(volatileImage, x0, y0, null);
+			} while (volatileImage.contentsLost());
+		}
+		
+		private void createVolatileImage(GraphicsConfiguration gc, int width, int height) {
+			if (volatileImage!=null) volatileImage.flush();
+			volatileImage = gc.createCompatibleVolatileImage(width, height, Transparency.TRANSLUCENT);
+			setSize(width, height);
+		}
+		
+		private void setSize(int width, int height) {
+			this.width = width;
+			this.height = height;
+			isValid = false;
+		}
+		
+		private void render(Graphics2D g2) {
+			g2.setComposite(AlphaComposite.Clear);
+			g2.fillRect(0, 0, width, height);
+			g2.setComposite(AlphaComposite.SrcOver);
+			g2.setClip(0, 0, width, height);
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			paintStaticAreas(g2, 0, 0, excludedArea);
+			g2.dispose();
+			isValid = true;
+		}
+		
+		void flush() {
+			if (volatileImage!=null) volatileImage.flush();
+			volatileImage = null;
+			bufferedImage = null;
+			isValid = false;
+		}
+	}
+	
+	private void paintArea(Graphics2D g2, int x0, int y0, Rectangle clip, Area area) {
 		if (area.shape==null) return;
 		
 		switch (area.shape.type) {
@@ -500,6 +1384,7 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 			int cX = viewState.convertPos_AngleToScreen_LongX(area.shape.center.x);
 			int cY = viewState.convertPos_AngleToScreen_LatY (area.shape.center.y);
 			int r  = viewState.convertLength_LengthToScreen((double) area.shape.radius);
+			if (isOutside(clip, x0+cX-r, y0+cY-r, 2*r, 2*r)) return;
 			g2.drawOval(x0+cX-r, y0+cY-r, 2*r, 2*r);
 			break;
 			
@@ -508,18 +1393,24 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 			int c1Y = viewState.convertPos_AngleToScreen_LatY (area.shape.corner1.y);
 			int w  = viewState.convertLength_LengthToScreen((double) (area.shape.corner2.x-area.shape.corner1.x+1));
 			int h  = viewState.convertLength_LengthToScreen((double) (area.shape.corner2.y-area.shape.corner1.y+1));
+			if (isOutside(clip, x0+c1X, y0+c1Y, w, h)) return;
 			g2.drawRect(x0+c1X, y0+c1Y, w, h);
 			break;
 		}
 	}
 	
+	private static boolean isOutside(Rectangle clip, int x, int y, int w, int h) {
+		if (clip==null) return false;
+		return x+w+1 < clip.x || clip.x+clip.width < x-1 || y+h+1 < clip.y || clip.y+clip.height < y-1;
+	}
+	
 	private void paintHandlePoints(Graphics2D g2, int x0, int y0) {
 		areaEditing.forEachPoint((hp,isHighlighted)->{
 			if (!hp.isVisible) return;
 			int hpX = viewState.convertPos_AngleToScreen_LongX(hp.x);
 			int hpY = viewState.convertPos_AngleToScreen_LatY (hp.y);
 			
-			int r = 3;
+			int r = HANDLE_POINT_RADIUS;
 			g2.setColor(isHighlighted ? Color.YELLOW : Color.GREEN);
 			g2.fillOval(x0+hpX-r, y0+hpY-r, 2*r+1, 2*r+1);
 			g2.setColor(COLOR_AXIS);
@@ -540,12 +1431,32 @@ class EditorView extends ZoomableCanvas<EditorView.ViewState> {
 			//debug_showChanges_scalePixelPerLength = true;
 		}
 
+		/**
+		 * Returns the map point in the middle of the canvas and the scale, both taken from the public conversions.
+		 */
+		double[] getView() {
+			double centerX = convertPos_ScreenToAngle_LongX(0) + convertLength_ScreenToLength(getWidth ()/2.0);
+			double centerY = convertPos_ScreenToAngle_LatY (0) + convertLength_ScreenToLength(getHeight()/2.0);
+			return new double[] { centerX, centerY, convertLength_LengthToScreenF(1.0) };
+		}
+		
+		/**
+		 * ZoomableCanvas has no public setter for center and scale, so they are set here after {@link ZoomableCanvas#reset()}
+		 * (which sets up the view state) and only with values, that passed {@link EditorView#isValidView(double, double, double)}.
+		 */
+		void setView(double centerX, double centerY, double scale) {
+			if (!isValidView(centerX, centerY, scale)) return;
+			center.longitude_x = centerX;
+			center.latitude_y  = centerY;
+			scalePixelPerLength = scale;
+		}
+		
 		@Override
 		protected void determineMinMax(MapLatLong min, MapLatLong max) {
 			min.longitude_x = 0.0;
 			min.latitude_y  = 0.0;
-			max.longitude_x = (image==null ? 100.0 : image.getWidth ());
-			max.latitude_y  = (image==null ? 100.0 : image.getHeight());
+			max.longitude_x = (imageTiles==null ? 100.0 : imageTiles.getWidth ());
+			max.latitude_y  = (imageTiles==null ? 100.0 : imageTiles.getHeight());
 		}
 	}
 }
\ No newline at end of file
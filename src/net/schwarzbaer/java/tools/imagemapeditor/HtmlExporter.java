@@ -0,0 +1,168 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the areas of an image map as HTML.<br>
+ * All text is encoded as UTF-8 straight into a reusable byte buffer, which is written through a {@link FileChannel}, when it is full.
+ * No intermediate strings are created for coordinates or escaped values.
+ */
+class HtmlExporter implements AutoCloseable {
+	private static final int BUFFER_SIZE = 1<<16;
+	private static final String NEWLINE = System.lineSeparator();
+
+	private final FileChannel channel;
+	private final byte[] bytes;
+	private int length;
+
+	HtmlExporter(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		bytes = new byte[BUFFER_SIZE];
+		length = 0;
+	}
+
+	/**
+	 * Writes a complete HTML file ({@code completeHTML}) or only the {@code <img>} and {@code <map>} elements.<br>
+	 * If {@code imageSrc} is {@code null}, no {@code <img>} element is written.
+	 */
+	static void write(File file, boolean completeHTML, String imageSrc, Iterable<Area> areas) throws IOException {
+		try (HtmlExporter out = new HtmlExporter(file)) {
+			out.writeHTML(file.getName(), completeHTML, imageSrc, areas);
+		}
+	}
+
+	void writeHTML(String title, boolean completeHTML, String imageSrc, Iterable<Area> areas) throws IOException {
+		if (completeHTML) {
+			append("<!DOCTYPE html>").append(NEWLINE);
+			append("<html>").append(NEWLINE);
+			append("<head>").append(NEWLINE);
+			append("    <title>").append(title).append("</title>").append(NEWLINE);
+			append("    <meta http-equiv=\"Content-Type\" content=\"text/html;charset=UTF-8\">").append(NEWLINE);
+			append("</head>").append(NEWLINE);
+			append("<body>").append(NEWLINE);
+		}
+
+		if (imageSrc!=null)
+			append("<img border=\"0\" src=\"").append(imageSrc).append("\" usemap=\"#map\" >").append(NEWLINE);
+
+		append("<map name=\"map\">").append(NEWLINE);
+		for (Area area : areas)
+			writeArea(area);
+		append("</map>").append(NEWLINE);
+
+		if (completeHTML) {
+			append("</body>").append(NEWLINE);
+			append("</html>").append(NEWLINE);
+		}
+	}
+
+	void writeArea(Area area) throws IOException {
+		Area.Shape shape = area.shape;
+		append("\t<area shape=\"").append(shape.type.toHtmlValue()).append("\" coords=\"");
+		switch (shape.type) {
+		case Circle:
+			append(shape.center.x).append(',').append(shape.center.y).append(',').append(shape.radius);
+			break;
+		case Rect:
+			append(shape.corner1.x).append(',').append(shape.corner1.y).append(',').append(shape.corner2.x).append(',').append(shape.corner2.y);
+			break;
+		}
+		append("\" title=\"").appendEscaped(area.title).append("\" onclick=\"").appendEscaped(area.onclick).append("\">").append(NEWLINE);
+	}
+
+	private HtmlExporter append(char ch) throws IOException {
+		if (bytes.length-length < 1) flush();
+		bytes[length++] = (byte) ch;
+		return this;
+	}
+
+	private HtmlExporter append(String str) throws IOException {
+		for (int i=0, n=str.length(); i<n; i++) {
+			if (bytes.length-length < 4) flush();
+			char ch = str.charAt(i);
+			if (ch<0x80) bytes[length++] = (byte) ch;
+			else i = appendNonASCII(str, i);
+		}
+		return this;
+	}
+
+	private HtmlExporter append(int value) throws IOException {
+		if (bytes.length-length < 11) flush();
+		if (value==Integer.MIN_VALUE) return append(Integer.toString(value));
+		if (value<0) { bytes[length++] = '-'; value = -value; }
+		int end = length + digitCount(value);
+		for (int i=end-1; i>=length; i--) {
+			bytes[i] = (byte) ('0' + value%10);
+			value /= 10;
+		}
+		length = end;
+		return this;
+	}
+
+	private static int digitCount(int value) {
+		int count = 1;
+		while (value>=10) { value /= 10; count++; }
+		return count;
+	}
+
+	/**
+	 * Escapes {@code \} as {@code \\} and {@code "} as {@code \"}.
+	 */
+	private HtmlExporter appendEscaped(String str) throws IOException {
+		if (str==null) return this;
+		for (int i=0, n=str.length(); i<n; i++) {
+			if (bytes.length-length < 5) flush();
+			char ch = str.charAt(i);
+			if (ch=='\\' || ch=='"') bytes[length++] = '\\';
+			if (ch<0x80) bytes[length++] = (byte) ch;
+			else i = appendNonASCII(str, i);
+		}
+		return this;
+	}
+
+	/**
+	 * Appends the non ASCII char at {@code index} as UTF-8 and returns the index of the last char used.<br>
+	 * Needs at least 4 free bytes in the buffer.
+	 * A surrogate pair is written as one code point, a lone surrogate as {@code ?} (like {@link java.io.OutputStreamWriter} does).
+	 */
+	private int appendNonASCII(String str, int index) {
+		char ch = str.charAt(index);
+		if (ch<0x800) {
+			bytes[length++] = (byte) (0xC0 | (ch>>6));
+			bytes[length++] = (byte) (0x80 | (ch & 0x3F));
+		} else if (!Character.isSurrogate(ch)) {
+			bytes[length++] = (byte) (0xE0 | (ch>>12));
+			bytes[length++] = (byte) (0x80 | ((ch>>6) & 0x3F));
+			bytes[length++] = (byte) (0x80 | (ch & 0x3F));
+		} else if (Character.isHighSurrogate(ch) && index+1<str.length() && Character.isLowSurrogate(str.charAt(index+1))) {
+			int cp = Character.toCodePoint(ch, str.charAt(++index));
+			bytes[length++] = (byte) (0xF0 | (cp>>18));
+			bytes[length++] = (byte) (0x80 | ((cp>>12) & 0x3F));
+			bytes[length++] = (byte) (0x80 | ((cp>>6) & 0x3F));
+			bytes[length++] = (byte) (0x80 | (cp & 0x3F));
+		} else {
+			bytes[length++] = '?';
+		}
+		return index;
+	}
+
+	private void flush() throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		length = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Vector;
+import java.util.function.Consumer;
+
+/**
+ * Reads the {@code <area>} elements of an HTML image map without building a DOM.<br>
+ * The input is scanned once, char by char. Each {@code <area>} with a {@code circle} or {@code rect} shape
+ * becomes an {@link Area}, all other tags (and comments) are skipped.
+ * Areas are handed over in chunks, so only one chunk is held by the importer at a time.
+ */
+class HtmlImporter {
+	static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	private final Reader in;
+	private final char[] buffer;
+	private int bufferPos;
+	private int bufferLength;
+	private final StringBuilder nameBuilder;
+	private final StringBuilder valueBuilder;
+	private int skippedAreas;
+
+	private String shapeValue;
+	private String coordsValue;
+	private String titleValue;
+	private String onclickValue;
+
+	HtmlImporter(Reader in) {
+		this.in = in;
+		buffer = new char[1<<16];
+		bufferPos = 0;
+		bufferLength = 0;
+		nameBuilder = new StringBuilder();
+		valueBuilder = new StringBuilder();
+		skippedAreas = 0;
+	}
+
+	static class Result {
+		final int importedAreas;
+		final int skippedAreas;
+		Result(int importedAreas, int skippedAreas) {
+			this.importedAreas = importedAreas;
+			this.skippedAreas = skippedAreas;
+		}
+	}
+
+	static Result read(File file, int chunkSize, Consumer<Vector<Area>> chunkConsumer) throws IOException {
+		try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+			return new HtmlImporter(in).read(chunkSize, chunkConsumer);
+		}
+	}
+
+	Result read(int chunkSize, Consumer<Vector<Area>> chunkConsumer) throws IOException {
+		int importedAreas = 0;
+		Vector<Area> chunk = new Vector<>(chunkSize);
+		int ch;
+		while ((ch = next())>=0) {
+			if (ch!='<') continue;
+			Area area = readTag();
+			if (area==null) continue;
+			chunk.add(area);
+			importedAreas++;
+			if (chunk.size()>=chunkSize) {
+				chunkConsumer.accept(chunk);
+				chunk = new Vector<>(chunkSize);
+			}
+		}
+		if (!chunk.isEmpty())
+			chunkConsumer.accept(chunk);
+		return new Result(importedAreas, skippedAreas);
+	}
+
+	private int next() throws IOException {
+		if (bufferPos>=bufferLength) {
+			bufferLength = in.read(buffer);
+			bufferPos = 0;
+			if (bufferLength<=0) { bufferLength = 0; return -1; }
+		}
+		return buffer[bufferPos++];
+	}
+
+	private void pushBack() {
+		bufferPos--;
+	}
+
+	private static boolean isSpace(int ch) {
+		return ch==' ' || ch=='\t' || ch=='\n' || ch=='\r' || ch=='\f';
+	}
+
+	private int skipSpaces() throws IOException {
+		int ch;
+		do ch = next(); while (isSpace(ch));
+		return ch;
+	}
+
+	/**
+	 * Reads a tag after its {@code <}. Returns an {@link Area}, if it was a usable {@code <area>} tag.
+	 */
+	private Area readTag() throws IOException {
+		nameBuilder.setLength(0);
+		int ch;
+		while ((ch = next())>=0 && !isSpace(ch) && ch!='>' && ch!='/') {
+			nameBuilder.append((char) ch);
+			if (nameBuilder.length()==3 && nameBuilder.toString().equals("!--")) {
+				skipComment();
+				return null;
+			}
+		}
+		if (ch<0) return null;
+		pushBack();
+
+		boolean isArea = nameBuilder.length()==4 && nameBuilder.toString().equalsIgnoreCase("area");
+		shapeValue = null;
+		coordsValue = null;
+		titleValue = null;
+		onclickValue = null;
+		readAttributes(isArea);
+		if (!isArea) return null;
+
+		Area.Shape shape = Area.Shape.parse(shapeValue, coordsValue);
+		if (shape==null) { skippedAreas++; return null; }
+		return new Area(shape, titleValue==null ? "" : titleValue, onclickValue==null ? "" : onclickValue);
+	}
+
+	private void skipComment() throws IOException {
+		int dashes = 0;
+		int ch;
+		while ((ch = next())>=0) {
+			if (ch=='>' && dashes>=2) return;
+			dashes = ch=='-' ? dashes+1 : 0;
+		}
+	}
+
+	private void readAttributes(boolean keepValues) throws IOException {
+		while (true) {
+			int ch = skipSpaces();
+			if (ch<0 || ch=='>') return;
+			if (ch=='/') continue;
+
+			nameBuilder.setLength(0);
+			while (ch>=0 && !isSpace(ch) && ch!='=' && ch!='>' && ch!='/') {
+				nameBuilder.append((char) ch);
+				ch = next();
+			}
+			if (isSpace(ch)) ch = skipSpaces();
+			if (ch!='=') {
+				// attribute without value
+				if (ch>=0) pushBack();
+				continue;
+			}
+
+			String value = readValue();
+			if (!keepValues || value==null) continue;
+			String name = nameBuilder.toString().toLowerCase();
+			switch (name) {
+			case "shape"  : shapeValue   = value; break;
+			case "coords" : coordsValue  = value; break;
+			case "title"  : titleValue   = value; break;
+			case "onclick": onclickValue = value; break;
+			}
+		}
+	}
+
+	/**
+	 * Reads a quoted or unquoted attribute value.<br>
+	 * Inside double quotes {@code \\} and {@code \"} are read as escaped chars, like {@link HtmlExporter} writes them.
+	 * Character references ({@code &amp;}, {@code &#34;}, ...) are decoded.
+	 */
+	private String readValue() throws IOException {
+		valueBuilder.setLength(0);
+		boolean hasEntities = false;
+		int ch = skipSpaces();
+		if (ch<0) return null;
+
+		if (ch=='"' || ch=='\'') {
+			int quote = ch;
+			while ((ch = next())>=0 && ch!=quote) {
+				if (ch=='\\' && quote=='"') {
+					int ch2 = next();
+					if (ch2=='\\' || ch2=='"') ch = ch2;
+					else if (ch2>=0) pushBack();
+				}
+				if (ch=='&') hasEntities = true;
+				valueBuilder.append((char) ch);
+			}
+		} else {
+			while (ch>=0 && !isSpace(ch) && ch!='>') {
+				if (ch=='&') hasEntities = true;
+				valueBuilder.append((char) ch);
+				ch = next();
+			}
+			if (ch=='>') pushBack();
+		}
+
+		String value = valueBuilder.toString();
+		return hasEntities ? decodeEntities(value) : value;
+	}
+
+	private static String decodeEntities(String str) {
+		StringBuilder sb = new StringBuilder(str.length());
+		int pos = 0;
+		while (pos<str.length()) {
+			int amp = str.indexOf('&', pos);
+			int semicolon = amp<0 ? -1 : str.indexOf(';', amp);
+			if (amp<0 || semicolon<0) break;
+			sb.append(str, pos, amp);
+			String entity = str.substring(amp+1, semicolon);
+			String decoded = decodeEntity(entity);
+			sb.append(decoded==null ? str.substring(amp, semicolon+1) : decoded);
+			pos = semicolon+1;
+		}
+		sb.append(str, pos, str.length());
+		return sb.toString();
+	}
+
+	private static String decodeEntity(String entity) {
+		switch (entity) {
+		case "amp" : return "&";
+		case "lt"  : return "<";
+		case "gt"  : return ">";
+		case "quot": return "\"";
+		case "apos": return "'";
+		case "nbsp": return "\u00A0";
+		}
+		try {
+			if (entity.startsWith("#x") || entity.startsWith("#X")) return new String(Character.toChars(Integer.parseInt(entity.substring(2), 16)));
+			if (entity.startsWith("#")) return new String(Character.toChars(Integer.parseInt(entity.substring(1))));
+		} catch (IllegalArgumentException e) {}
+		return null;
+	}
+}
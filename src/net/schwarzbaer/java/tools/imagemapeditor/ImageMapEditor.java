@@ -5,28 +5,39 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.Point;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JList;
 import javax.swing.JMenu;
@@ -34,9 +45,12 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.KeyStroke;
 import javax.swing.ListCellRenderer;
 import javax.swing.ListModel;
+import javax.swing.SwingWorker;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import javax.swing.event.ListDataEvent;
@@ -51,11 +65,20 @@ import net.schwarzbaer.java.lib.gui.StandardMainWindow.DefaultCloseOperation;
 
 public class ImageMapEditor {
 
+	private static final int MAX_LISTED_AREAS = 20;
+
 	private final StandardMainWindow mainWindow;
 	private final EditorView editorView;
 	private final AreaListModel areaListModel;
+	private final EditJournal journal;
 	private final JList<Area> areaList;
 	private MapImage mapImage;
+	private MapImage.Loader imageLoader;
+	private final JProgressBar imageLoadProgress;
+	private double[] pendingView;
+	private final boolean isStandAloneApp;
+	private final boolean canChangeImage;
+	private EditLog editLog;
 	private String suggestedHtmlOutFileName;
 	private Area clickedArea;
 	private int clickedAreaListIndex;
@@ -81,16 +104,20 @@ public class ImageMapEditor {
 	ImageMapEditor(String title, MapImage mapImage, Vector<Area> areas, String suggestedHtmlOutFileName, boolean asStandAloneApp) {
 		this.mapImage = mapImage;
 		this.suggestedHtmlOutFileName = suggestedHtmlOutFileName;
+		this.isStandAloneApp = asStandAloneApp;
+		this.canChangeImage = mapImage==null;
+		this.editLog = null;
 		
 		DefaultCloseOperation closeOp = asStandAloneApp ? DefaultCloseOperation.EXIT_ON_CLOSE : DefaultCloseOperation.DISPOSE_ON_CLOSE;
 		mainWindow = new StandardMainWindow(title, closeOp);
 		
 		areaListModel = new AreaListModel(areas);
+		journal = new EditJournal(areaListModel);
 		areaList = new JList<>(areaListModel);
 		JScrollPane areaListScrollPane = new JScrollPane(areaList);
 		areaListScrollPane.setBorder(BorderFactory.createTitledBorder("List of Areas"));
 		
-		editorView = new EditorView(800,600,areaList,areaListModel);
+		editorView = new EditorView(800,600,areaList,areaListModel,journal);
 		
 		areaList.setCellRenderer(new ImageMapEditor.AreaListRenderer());
 
@@ -103,13 +130,13 @@ public class ImageMapEditor {
 		areaListContextMenu.add(createMenuItem("Add Circle", true, e->{
 			Area area = AreaDialog.CircleDialog.showAddDialog(mainWindow);
 			if (area==null) return;
-			areaListModel.add(area);
+			journal.add(area);
 			editorView.repaint();
 		}));
 		areaListContextMenu.add(createMenuItem("Add Rectangle", true, e->{
 			Area area = AreaDialog.RectDialog.showAddDialog(mainWindow);
 			if (area==null) return;
-			areaListModel.add(area);
+			journal.add(area);
 			editorView.repaint();
 		}));
 		areaListContextMenu.add(miALCMSwitch = createMenuItem("Switch Shape Type", true, e->{
@@ -127,15 +154,18 @@ public class ImageMapEditor {
 			int[] indices = areaList.getSelectedIndices();
 			if (indices.length==0) return;
 			
-			String message = String.format("Do you really want to delete following %d areas?%n", indices.length);
-			for (int index:indices)
-				message += String.format("   [%d] %s%n", index+1, areaListModel.getElementAt(index));
+			StringBuilder message = new StringBuilder();
+			message.append(String.format("Do you really want to delete following %d areas?%n", indices.length));
+			for (int i=0; i<indices.length && i<MAX_LISTED_AREAS; i++)
+				message.append(String.format("   [%d] %s%n", indices[i]+1, areaListModel.getElementAt(indices[i])));
+			if (indices.length>MAX_LISTED_AREAS)
+				message.append(String.format("   ... and %d more%n", indices.length-MAX_LISTED_AREAS));
 			
-			int result = JOptionPane.showConfirmDialog(mainWindow, message, "Are You Sure?", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE);
+			int result = JOptionPane.showConfirmDialog(mainWindow, message.toString(), "Are You Sure?", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE);
 			if (result!=JOptionPane.YES_OPTION) return;
 			
-			areaListModel.remove(indices);
-			editorView.repaint();
+			journal.remove(indices);
+			editorView.resetEditing();
 		}));
 		
 		clickedArea = null;
@@ -171,7 +201,7 @@ public class ImageMapEditor {
 			Area area = AreaDialog.CircleDialog.showAddDialog(mainWindow, center, 10);
 			if (area==null) return;
 			
-			areaListModel.add(area);
+			journal.add(area);
 			editorView.repaint();
 		}));
 		editorViewContextMenu.add(miEVCMAddRectangle = createMenuItem("Add Rectangle", true, e->{
@@ -183,7 +213,7 @@ public class ImageMapEditor {
 			Area area = AreaDialog.RectDialog.showAddDialog(mainWindow, center, 15, 10);
 			if (area==null) return;
 			
-			areaListModel.add(area);
+			journal.add(area);
 			editorView.repaint();
 		}));
 		editorViewContextMenu.add(miEVCMSwitch = createMenuItem("Switch Shape Type", true, e->{
@@ -211,12 +241,10 @@ public class ImageMapEditor {
 		});
 		
 		areaList.addListSelectionListener(e -> {
-			int[] arr = areaList.getSelectedIndices();
-			HashSet<Integer> indices = new HashSet<>();
-			for (int index:arr)
-				indices.add(index);
-			areaListModel.setSelectedIndices(indices);
-			editorView.repaint();
+			int last = Math.min(e.getLastIndex(), areaListModel.getSize()-1);
+			for (int i=e.getFirstIndex(); i<=last; i++)
+				areaListModel.setSelected(i, areaList.isSelectedIndex(i));
+			editorView.selectionChanged(e.getFirstIndex(), last);
 		});
 		
 		JPanel leftPanel = new JPanel(new BorderLayout(3,3));
@@ -226,11 +254,31 @@ public class ImageMapEditor {
 		contentPane.add(leftPanel,BorderLayout.WEST);
 		contentPane.add(editorView,BorderLayout.CENTER);
 		
+		imageLoadProgress = new JProgressBar(0,100);
+		imageLoadProgress.setStringPainted(true);
+		imageLoadProgress.setVisible(false);
+		contentPane.add(imageLoadProgress,BorderLayout.SOUTH);
+		
 		JMenuBar menuBar = new JMenuBar();
 		
 		FileChooser htmlFileChooser = new FileChooser("HTML-File", "html");
+		FileChooser projectFileChooser = new FileChooser("Project-File", ProjectFile.EXTENSION);
 		
 		JMenu fileMenu = menuBar.add(new JMenu("File"));
+		fileMenu.add(createMenuItem("Open Project ...", true, e->{
+			if (projectFileChooser.showOpenDialog(mainWindow)!=JFileChooser.APPROVE_OPTION) return;
+			openProject(projectFileChooser.getSelectedFile());
+		}));
+		fileMenu.add(createMenuItem("Save Project ...", true, e->{
+			if (projectFileChooser.showSaveDialog(mainWindow)!=JFileChooser.APPROVE_OPTION) return;
+			saveProject(projectFileChooser.getSelectedFile());
+		}));
+		fileMenu.addSeparator();
+		fileMenu.add(createMenuItem("Read Areas from HTML ...", true, e->{
+			if (htmlFileChooser.showOpenDialog(mainWindow)!=JFileChooser.APPROVE_OPTION) return;
+			readFromHTML(htmlFileChooser.getSelectedFile());
+		}));
+		fileMenu.addSeparator();
 		fileMenu.add(createMenuItem("Write HTML ...", true, e->{
 			if (this.suggestedHtmlOutFileName!=null) htmlFileChooser.suggestFileName(this.suggestedHtmlOutFileName);
 			if (htmlFileChooser.showSaveDialog(mainWindow)!=JFileChooser.APPROVE_OPTION) return;
@@ -246,10 +294,39 @@ public class ImageMapEditor {
 		
 		if (asStandAloneApp) {
 			fileMenu.addSeparator();
-			fileMenu.add(createMenuItem("Quit",true,e->{ System.exit(0); }));
+			fileMenu.add(createMenuItem("Quit",true,e->{ closeEditLog(); System.exit(0); }));
 		}
 		
-		if (this.mapImage==null) {
+		JMenu editMenu = menuBar.add(new JMenu("Edit"));
+		JMenuItem miUndo = editMenu.add(createMenuItem("Undo", false, e->{ journal.undo(); editorView.resetEditing(); }));
+		JMenuItem miRedo = editMenu.add(createMenuItem("Redo", false, e->{ journal.redo(); editorView.resetEditing(); }));
+		miUndo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK));
+		miRedo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
+		journal.addChangeListener(()->{
+			miUndo.setEnabled(journal.canUndo());
+			miRedo.setEnabled(journal.canRedo());
+			miUndo.setText(journal.canUndo() ? "Undo "+journal.getUndoName() : "Undo");
+			miRedo.setText(journal.canRedo() ? "Redo "+journal.getRedoName() : "Redo");
+		});
+		
+		JMenu viewMenu = menuBar.add(new JMenu("View"));
+		JCheckBoxMenuItem miLatencyOverlay = new JCheckBoxMenuItem("Show Latency Overlay", false);
+		miLatencyOverlay.addActionListener(e->editorView.setLatencyOverlay(miLatencyOverlay.isSelected()));
+		viewMenu.add(miLatencyOverlay);
+		JCheckBoxMenuItem miLevelOfDetail = new JCheckBoxMenuItem("Simplify Small Areas when Zoomed Out", true);
+		miLevelOfDetail.addActionListener(e->editorView.setLevelOfDetail(miLevelOfDetail.isSelected()));
+		viewMenu.add(miLevelOfDetail);
+		JCheckBoxMenuItem miParallelRendering = new JCheckBoxMenuItem("Render Areas on All Cores", false);
+		miParallelRendering.addActionListener(e->editorView.setParallelRendering(miParallelRendering.isSelected()));
+		viewMenu.add(miParallelRendering);
+		viewMenu.addSeparator();
+		viewMenu.add(createMenuItem("Print Latency Histograms", true, e->{
+			Latency.dump(System.out);
+			System.out.printf("   %-16s %1.1f mouse events per update%n", "Input Coalescing", editorView.getInputCoalescingRatio());
+		}));
+		viewMenu.add(createMenuItem("Reset Latency Histograms", true, e->{ Latency.reset(); editorView.resetInputCoalescing(); editorView.repaint(); }));
+		
+		if (canChangeImage) {
 			JFileChooser imageFileChooser = new JFileChooser("./");
 			imageFileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
 			imageFileChooser.setMultiSelectionEnabled(false);
@@ -260,24 +337,74 @@ public class ImageMapEditor {
 			imageMenu.add(createMenuItem("Load Image from File ...", true, e->{
 				if (imageFileChooser.showOpenDialog(mainWindow)!=JFileChooser.APPROVE_OPTION) return;
 				File file = imageFileChooser.getSelectedFile();
-				MapImage newMapImage = MapImage.loadImage(file);
-				if (newMapImage==null) return;
-				this.mapImage = newMapImage;
-				editorView.setImage(this.mapImage.image);
+				loadImage(MapImage.createLoader(file, this::setMapImage));
 			}));
 			imageMenu.add(createMenuItem("Load Image from URL ...", true, e->{
 				String urlStr = JOptionPane.showInputDialog(mainWindow, "message", "title", JOptionPane.QUESTION_MESSAGE);
 				if (urlStr==null) return;
-				MapImage newMapImage = MapImage.loadImage(urlStr);
-				if (newMapImage==null) return;
-				this.mapImage = newMapImage;
-				editorView.setImage(this.mapImage.image);
+				loadImage(MapImage.createLoader(urlStr, this::setMapImage));
 			}));
 		}
 		
+		mainWindow.addWindowListener(new WindowAdapter() {
+			@Override public void windowClosing(WindowEvent e) {
+				closeEditLog();
+			}
+			@Override public void windowClosed(WindowEvent e) {
+				if (imageLoader!=null) imageLoader.cancel(true);
+				editorView.releaseImage();
+			}
+		});
 		mainWindow.startGUI(contentPane,menuBar);
 	}
 
+	private void loadImage(MapImage.Loader loader) {
+		if (imageLoader!=null) imageLoader.cancel(true);
+		pendingView = null;
+		imageLoader = loader;
+		imageLoadProgress.setValue(0);
+		imageLoadProgress.setString(String.format("Loading image \"%s\" ...", loader.getSource()));
+		imageLoadProgress.setVisible(true);
+		loader.addPropertyChangeListener(e->{
+			if (imageLoader!=loader) return;
+			switch (e.getPropertyName()) {
+			case "progress":
+				imageLoadProgress.setValue((Integer) e.getNewValue());
+				break;
+			case "state":
+				if (e.getNewValue()!=SwingWorker.StateValue.DONE) break;
+				imageLoader = null;
+				imageLoadProgress.setVisible(false);
+				break;
+			}
+		});
+		loader.execute();
+	}
+
+	private void setMapImage(MapImage mapImage) {
+		boolean replacesPreview = this.mapImage!=null && this.mapImage.isPreview() && !mapImage.isPreview() && this.mapImage.hasSameSource(mapImage);
+		this.mapImage = mapImage;
+		showMapImage(mapImage, replacesPreview);
+		if (editLog!=null && !replacesPreview) editLog.setImage(mapImage.file, mapImage.url);
+	}
+
+	private void showMapImage(MapImage mapImage, boolean keepView) {
+		if (mapImage.decodeRegions)
+			editorView.setImage(new RegionImage(mapImage.file, mapImage.image, mapImage.width, mapImage.height, MapImage.getRegionCacheBudget(), editorView::tilesChanged, e->{
+				String message = String.format("Can't decode regions of image file \"%s\":%n%s%nOnly a reduced preview of the image can be shown.", mapImage.file.getAbsolutePath(), e.getMessage());
+				JOptionPane.showMessageDialog(mainWindow, message, "Image Error", JOptionPane.ERROR_MESSAGE);
+			}), keepView);
+		else if (mapImage.isPreview())
+			editorView.setImage(mapImage.image, mapImage.width, mapImage.height);
+		else
+			editorView.setSharedImage(mapImage.getImagePyramid(), keepView);
+		
+		if (pendingView!=null) {
+			if (!keepView) editorView.setView(pendingView);
+			if (!mapImage.isPreview()) pendingView = null;
+		}
+	}
+
 	private void remove(Area area, int index) {
 		if (area==null)
 			return;
@@ -291,8 +418,8 @@ public class ImageMapEditor {
 		int result = JOptionPane.showConfirmDialog(mainWindow, message, "Are You Sure?", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE);
 		if (result!=JOptionPane.YES_OPTION) return;
 		
-		areaListModel.remove(area);
-		editorView.repaint();
+		journal.remove(area);
+		editorView.resetEditing();
 	}
 
 	private String getSwitchTargetType(Area area) {
@@ -335,70 +462,189 @@ public class ImageMapEditor {
 		if (area==null)
 			return;
 		
+		int[] oldShape = EditJournal.pack(area.shape);
+		String oldTitle = area.title;
+		String oldOnclick = area.onclick;
 		boolean changed = action.apply(area);
 		if (!changed) return;
 		
 		if (index<0) areaListModel.notifyAreaChanged(area);
-		else         areaListModel.fireContentsChangedEvent(index, index);
-		editorView.repaint();
+		else         areaListModel.notifyAreaChanged(index);
+		journal.recordChange(area, oldShape, oldTitle, oldOnclick);
+		editorView.resetEditing();
 	}
 
-	private void writeToHTML(File file, boolean completeHTML) {
-		try (PrintWriter htmlOut = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
-			
-			if (completeHTML) {
-				htmlOut.println("<!DOCTYPE html>");
-				htmlOut.println("<html>");
-				htmlOut.println("<head>");
-				htmlOut.printf ("    <title>%s</title>%n", file.getName());
-				htmlOut.println("    <meta http-equiv=\"Content-Type\" content=\"text/html;charset=UTF-8\">");
-				htmlOut.println("</head>");
-				htmlOut.println("<body>");
+	private void readFromHTML(File file) {
+		if (areaListModel.getSize()>0) {
+			String message = String.format("Replace the current %d areas with the areas from \"%s\"?%nOtherwise the read areas will be added.", areaListModel.getSize(), file.getName());
+			int result = JOptionPane.showConfirmDialog(mainWindow, message, "Replace Areas?", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+			if (result!=JOptionPane.YES_OPTION && result!=JOptionPane.NO_OPTION) return;
+			if (result==JOptionPane.YES_OPTION) {
+				areaListModel.clear();
+				editorView.resetEditing();
+				journal.clear(); // the replaced areas are not part of the journal
+			}
+		}
+		
+		// the imported areas are recorded as one entry at the end, unless the journal was used in the meantime
+		Vector<Area> importedAreas = new Vector<>();
+		boolean[] isJournalChanged = new boolean[] { false };
+		Runnable journalListener = ()->isJournalChanged[0] = true;
+		journal.addChangeListener(journalListener);
+		
+		new SwingWorker<HtmlImporter.Result,Vector<Area>>() {
+			@Override protected HtmlImporter.Result doInBackground() throws Exception {
+				return HtmlImporter.read(file, HtmlImporter.DEFAULT_CHUNK_SIZE, this::publishChunk);
 			}
 			
-			if (mapImage!=null) {
-				String url = null;
-				switch (mapImage.type) {
-				case File:
-					System.out.printf("Convert File: \"%s\"%n", mapImage.file.getAbsolutePath());
-					URI uri = mapImage.file.toURI();
-					System.out.printf("      to URI: \"%s\"%n", uri.toString());
-					URL url_;
-					try {
-						url_ = uri.toURL();
-						System.out.printf("      to URL: \"%s\"%n", url_.toString());
-					} catch (MalformedURLException e) {
-						System.err.printf("      to URL: --> MalformedURLException: %s%n", e.getMessage());
-						url_ = null;
-					}
-					if (url_!=null)
-						url = url_.toString();
-					break;
-				case URL: url = mapImage.url; break;
+			@SuppressWarnings("unchecked")
+			private void publishChunk(Vector<Area> chunk) {
+				publish(chunk);
+			}
+			
+			@Override protected void process(List<Vector<Area>> chunks) {
+				for (Vector<Area> chunk : chunks) {
+					areaListModel.addAll(chunk);
+					importedAreas.addAll(chunk);
 				}
-				htmlOut.printf ("<img border=\"0\" src=\"%s\" usemap=\"#map\" >%n", url);
+				editorView.repaint();
 			}
 			
-			htmlOut.println("<map name=\"map\">");
-			areaListModel.forEach(area->{
-				String type = area.shape.type.toHtmlValue();
-				String coords = area.shape.toCoordsValue();
-				String title   = area.title  .replace("\\", "\\\\").replace("\"", "\\\"");
-				String onclick = area.onclick.replace("\\", "\\\\").replace("\"", "\\\"");
-				htmlOut.printf("	<area shape=\"%s\" coords=\"%s\" title=\"%s\" onclick=\"%s\">%n", type, coords, title, onclick);
-			});
-			htmlOut.println("</map>");
+			@Override protected void done() {
+				// process() gets all published chunks before done() is called
+				journal.removeChangeListener(journalListener);
+				if (isJournalChanged[0]) journal.clear();
+				else journal.recordAddition(importedAreas);
+				
+				try {
+					HtmlImporter.Result result = get();
+					System.out.printf("%d areas read from file \"%s\" (%d unsupported areas skipped)%n", result.importedAreas, file.getAbsolutePath(), result.skippedAreas);
+				} catch (InterruptedException | ExecutionException e) {
+					Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+					System.err.printf("%s while reading HTML from file \"%s\": %s%n", cause.getClass().getSimpleName(), file.getAbsolutePath(), cause.getMessage());
+					JOptionPane.showMessageDialog(mainWindow, String.format("Can't read HTML from file \"%s\":%n%s", file.getAbsolutePath(), cause.getMessage()), "Read Error", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}.execute();
+	}
+
+	private void openProject(File file) {
+		new SwingWorker<ProjectFile,Void>() {
+			private long start;
 			
-			if (completeHTML) {
-				htmlOut.println("</body>");
-				htmlOut.println("</html>");
+			@Override protected ProjectFile doInBackground() throws Exception {
+				start = System.nanoTime();
+				return ProjectFile.read(file);
 			}
 			
+			@Override protected void done() {
+				ProjectFile project;
+				try {
+					project = get();
+				} catch (InterruptedException | ExecutionException e) {
+					Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+					System.err.printf("%s while reading project file \"%s\": %s%n", cause.getClass().getSimpleName(), file.getAbsolutePath(), cause.getMessage());
+					JOptionPane.showMessageDialog(mainWindow, String.format("Can't read project file \"%s\":%n%s", file.getAbsolutePath(), cause.getMessage()), "Read Error", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+				
+				setProject(project);
+				System.out.printf("%d areas read from project file \"%s\" in %1.3f ms%n", project.areas.length, file.getAbsolutePath(), (System.nanoTime()-start)/1e6);
+			}
+		}.execute();
+	}
+
+	private void setProject(ProjectFile project) {
+		areaListModel.replaceAll(Arrays.asList(project.areas));
+		journal.clear();
+		editorView.resetEditing();
+		
+		if (canChangeImage && project.imageFile!=null) {
+			loadImage(MapImage.createLoader(project.imageFile, this::setMapImage));
+			pendingView = project.view; // applied, when the image is shown
+		} else if (canChangeImage && project.imageURL!=null) {
+			loadImage(MapImage.createLoader(project.imageURL, this::setMapImage));
+			pendingView = project.view;
+		} else
+			editorView.setView(project.view);
+	}
+
+	/**
+	 * Offers to recover the areas of a crashed session and starts logging all changes (stand alone app only).
+	 */
+	private void startEditLog() {
+		File folder = EditLog.getDefaultFolder();
+		ProjectFile session = null;
+		try {
+			session = EditLog.findUnclosedSession(folder);
+		} catch (IOException e) {
+			System.err.printf("IOException while reading autosave in folder \"%s\": %s%n", folder.getAbsolutePath(), e.getMessage());
+			// a new autosave would delete the files of the last session
+			String message = String.format("The last session wasn't closed regularly, but its autosave can't be read:%n%s%n%nDiscard it and start a new autosave?%nOtherwise its files are kept in \"%s\" and there is no autosave for this session.", e.getMessage(), folder.getAbsolutePath());
+			int result = JOptionPane.showConfirmDialog(mainWindow, message, "Autosave Error", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+			if (result!=JOptionPane.YES_OPTION) return;
 		}
-		catch (FileNotFoundException e) {
-			e.printStackTrace();
+		if (session!=null) {
+			// starting a new autosave deletes the files of the last session
+			String message = String.format("The last session wasn't closed regularly.%nRecover its %d areas?%n%n"
+					+ "No: Its autosave is discarded.%n"
+					+ "Cancel: Its files are kept in \"%s\" and there is no autosave for this session.", session.areas.length, folder.getAbsolutePath());
+			int result = JOptionPane.showConfirmDialog(mainWindow, message, "Recover Areas?", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+			if (result!=JOptionPane.YES_OPTION && result!=JOptionPane.NO_OPTION) return;
+			if (result==JOptionPane.YES_OPTION) setProject(session);
+		}
+		editLog = EditLog.start(folder, areaListModel, mapImage==null ? null : mapImage.file, mapImage==null ? null : mapImage.url);
+	}
+
+	private void closeEditLog() {
+		if (editLog==null) return;
+		editLog.close(true);
+		editLog = null;
+	}
+
+	private void saveProject(File file) {
+		try {
+			ProjectFile.write(file, mapImage==null ? null : mapImage.file, mapImage==null ? null : mapImage.url, editorView.getView(), areaListModel);
+		} catch (IOException e) {
+			System.err.printf("IOException while writing project file \"%s\": %s%n", file.getAbsolutePath(), e.getMessage());
+			JOptionPane.showMessageDialog(mainWindow, String.format("Can't write project file \"%s\":%n%s", file.getAbsolutePath(), e.getMessage()), "Write Error", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	private void writeToHTML(File file, boolean completeHTML) {
+		String imageSrc = null;
+		if (mapImage!=null) {
+			String url = null;
+			switch (mapImage.type) {
+			case File:
+				System.out.printf("Convert File: \"%s\"%n", mapImage.file.getAbsolutePath());
+				URI uri = mapImage.file.toURI();
+				System.out.printf("      to URI: \"%s\"%n", uri.toString());
+				URL url_;
+				try {
+					url_ = uri.toURL();
+					System.out.printf("      to URL: \"%s\"%n", url_.toString());
+				} catch (MalformedURLException e) {
+					System.err.printf("      to URL: --> MalformedURLException: %s%n", e.getMessage());
+					url_ = null;
+				}
+				if (url_!=null)
+					url = url_.toString();
+				break;
+			case URL: url = mapImage.url; break;
+			}
+			imageSrc = String.valueOf(url);
 		}
 		
+		Latency.Sample sample = Latency.EXPORT.begin(file.getAbsolutePath());
+		try {
+			HtmlExporter.write(file, completeHTML, imageSrc, areaListModel);
+		} catch (IOException e) {
+			System.err.printf("IOException while writing HTML to file \"%s\": %s%n", file.getAbsolutePath(), e.getMessage());
+			JOptionPane.showMessageDialog(mainWindow, String.format("Can't write HTML to file \"%s\":%n%s", file.getAbsolutePath(), e.getMessage()), "Write Error", JOptionPane.ERROR_MESSAGE);
+		} finally {
+			sample.finish();
+		}
 	}
 
 	static JMenuItem createMenuItem(String title, boolean isEnabled, ActionListener al) {
@@ -417,9 +663,11 @@ public class ImageMapEditor {
 
 	private void initialize() {
 		if (mapImage!=null)
-			editorView.setImage(mapImage.image);
+			showMapImage(mapImage, false);
 		else
 			editorView.reset();
+		if (isStandAloneApp)
+			startEditLog();
 	}
 	
 	private class AreaListRenderer implements ListCellRenderer<Area> {
@@ -438,24 +686,50 @@ public class ImageMapEditor {
 	
 	}
 
+	/**
+	 * List of all areas, backed by a plain array (no synchronization, all access happens in the event dispatch thread).<br>
+	 * Selection is held in a {@link BitSet}. Bulk operations fire one coalesced event for the whole changed range.
+	 * The position of each area is kept in an identity map, so lookups by reference don't scan the list.
+	 */
 	static class AreaListModel implements ListModel<Area>, Iterable<Area> {
 		
 		private final Vector<ListDataListener> listDataListeners;
-		private final Vector<Area> data;
-		private HashSet<Integer> selectedIndices;
+		private Area[] data;
+		private int size;
+		private final BitSet selected;
+		private final IdentityHashMap<Area,Integer> positions;
+		final AreaIndex areaIndex;
 		
 		AreaListModel() { this(null); }
 		AreaListModel(Vector<Area> data) {
 			listDataListeners = new Vector<>();
-			selectedIndices = null;
-			this.data = data==null ? new Vector<>() : new Vector<>(data);
+			selected = new BitSet();
+			size = data==null ? 0 : data.size();
+			this.data = new Area[Math.max(16, size)];
+			positions = new IdentityHashMap<>(Math.max(16, size));
+			areaIndex = new AreaIndex();
+			for (int i=0; i<size; i++) {
+				this.data[i] = data.get(i);
+				positions.put(this.data[i], i);
+			}
+			areaIndex.addAll(this.data, 0, size);
 		}
 				
 		@Override public void    addListDataListener(ListDataListener l) { listDataListeners.   add(l); }
 		@Override public void removeListDataListener(ListDataListener l) { listDataListeners.remove(l); }
 		
-		public void setSelectedIndices(HashSet<Integer> selectedIndices) {
-			this.selectedIndices = selectedIndices;
+		public void setSelected(int index, boolean isSelected) {
+			if (index<0 || index>=size) return;
+			selected.set(index, isSelected);
+		}
+		
+		public boolean isSelected(int index) {
+			return selected.get(index);
+		}
+		
+		public boolean isSelected(Area area) {
+			int index = indexOf(area);
+			return index>=0 && selected.get(index);
 		}
 		
 		public interface AreaAction {
@@ -463,41 +737,213 @@ public class ImageMapEditor {
 		}
 		
 		public void forEach(AreaAction action) {
-			for (int i=0; i<data.size(); i++) {
-				Area area = data.get(i);
-				boolean isSelected = selectedIndices!=null && selectedIndices.contains(i);
-				action.apply(area,isSelected);
-			}
+			for (int i=0; i<size; i++)
+				action.apply(data[i], selected.get(i));
+		}
+		
+		/**
+		 * Gives only the areas, whose bounds intersect [{@code minX},{@code maxX}] x [{@code minY},{@code maxY}], to {@code action}.<br>
+		 * Returns {@code false} without calling {@code action}, if the {@link AreaIndex} can't narrow them down (see {@link AreaIndex#forEachIntersecting}).
+		 */
+		public boolean forEachIntersecting(double minX, double minY, double maxX, double maxY, AreaAction action) {
+			return areaIndex.forEachIntersecting(minX, minY, maxX, maxY, area->{
+				int index = indexOf(area);
+				if (index>=0) action.apply(area, selected.get(index));
+			});
 		}
 
-		@Override public Iterator<Area> iterator() { return data.iterator(); }
-		@Override public int getSize() { return data.size(); }
-		@Override public Area getElementAt(int index) { return data.get(index); }
+		@Override public Iterator<Area> iterator() {
+			return new Iterator<Area>() {
+				private int next = 0;
+				@Override public boolean hasNext() { return next<size; }
+				@Override public Area next() {
+					if (next>=size) throw new NoSuchElementException();
+					return data[next++];
+				}
+			};
+		}
+		
+		@Override public int getSize() { return size; }
+		@Override public Area getElementAt(int index) {
+			if (index<0 || index>=size) throw new ArrayIndexOutOfBoundsException(index);
+			return data[index];
+		}
+		
+		private void ensureCapacity(int capacity) {
+			if (capacity<=data.length) return;
+			data = Arrays.copyOf(data, Math.max(capacity, data.length + (data.length>>1)));
+		}
 		
 		public void add(Area area) {
-			data.add(area);
-			fireIntervalAddedEvent(data.size()-1, data.size()-1);
+			ensureCapacity(size+1);
+			positions.put(area, size);
+			data[size++] = area;
+			areaIndex.add(area);
+			fireIntervalAddedEvent(size-1, size-1);
+		}
+		
+		public void addAll(Collection<Area> areas) {
+			if (areas.isEmpty()) return;
+			int first = size;
+			ensureCapacity(size+areas.size());
+			for (Area area:areas) {
+				positions.put(area, size);
+				data[size++] = area;
+			}
+			areaIndex.addAll(data, first, size);
+			fireIntervalAddedEvent(first, size-1);
+		}
+		
+		/**
+		 * Replaces all areas. Selection is cleared.
+		 */
+		public void replaceAll(Collection<Area> areas) {
+			int oldSize = size;
+			Arrays.fill(data, 0, size, null);
+			selected.clear();
+			positions.clear();
+			areaIndex.clear();
+			size = 0;
+			ensureCapacity(areas.size());
+			for (Area area:areas) {
+				positions.put(area, size);
+				data[size++] = area;
+			}
+			areaIndex.addAll(data, 0, size);
+			if (oldSize==size) {
+				if (size>0) fireContentsChangedEvent(0, size-1);
+			} else {
+				if (oldSize>0) fireIntervalRemovedEvent(0, oldSize-1);
+				if (size>0) fireIntervalAddedEvent(0, size-1);
+			}
+		}
+		
+		public void clear() {
+			if (size==0) return;
+			int last = size-1;
+			Arrays.fill(data, 0, size, null);
+			size = 0;
+			selected.clear();
+			positions.clear();
+			areaIndex.clear();
+			fireIntervalRemovedEvent(0, last);
 		}
 		
 		public void remove(Area area) {
-			remove(data.indexOf(area));
+			remove(indexOf(area));
+		}
+		
+		int indexOf(Area area) {
+			Integer index = positions.get(area);
+			return index==null ? -1 : index;
 		}
 		
 		public void remove(int index) {
-			if (index<0 || index>=data.size()) return;
-			data.remove(index);
-			fireIntervalRemovedEvent(index, index);
+			if (index<0 || index>=size) return;
+			remove(new int[] { index });
 		}
 		
+		/**
+		 * Removes all areas at {@code indices} in one pass.<br>
+		 * A contiguous range is reported as one removed interval.
+		 * Otherwise the range from the first removed index to the end is reported as removed and the remaining part of it as added again.
+		 */
 		public void remove(int[] indices) {
-			Arrays.sort(indices);
-			for (int i=indices.length-1; i>=0; i--)
-				remove(indices[i]);
+			int[] sorted = indices.clone();
+			Arrays.sort(sorted);
+			int r = 0;
+			while (r<sorted.length && sorted[r]<0) r++;
+			if (r>=sorted.length || sorted[r]>=size) return;
+			
+			int oldSize = size;
+			int first = sorted[r];
+			int lastRemoved = first;
+			int write = first;
+			boolean removesAll = countDistinct(sorted, r, size)==size;
+			if (removesAll) { areaIndex.clear(); positions.clear(); }
+			for (int read=first; read<oldSize; read++) {
+				if (r<sorted.length && sorted[r]==read) {
+					if (!removesAll) { areaIndex.remove(data[read]); positions.remove(data[read]); }
+					lastRemoved = read;
+					while (r<sorted.length && sorted[r]==read) r++;
+					continue;
+				}
+				if (write!=read) positions.put(data[read], write);
+				data[write] = data[read];
+				selected.set(write, selected.get(read));
+				write++;
+			}
+			Arrays.fill(data, write, oldSize, null);
+			selected.clear(write, oldSize);
+			size = write;
+			
+			int removed = oldSize-size;
+			if (lastRemoved-first+1 == removed)
+				fireIntervalRemovedEvent(first, lastRemoved);
+			else
+				fireScatteredEvents(first, oldSize-1, size-1, distinct(sorted, size+removed), false);
+		}
+		
+		private static int[] distinct(int[] sorted, int limit) {
+			int start = 0;
+			while (start<sorted.length && sorted[start]<0) start++;
+			int[] result = new int[countDistinct(sorted, start, limit)];
+			for (int i=start, n=0; n<result.length; i++)
+				if (i==start || sorted[i]!=sorted[i-1]) result[n++] = sorted[i];
+			return result;
+		}
+		
+		/**
+		 * Inserts {@code areas}, so that they end up at the ascending positions {@code indices}
+		 * (the inverse of {@link #remove(int[])} with the same indices). Inserted areas are not selected.
+		 */
+		void insert(int[] indices, Area[] areas) {
+			int count = areas.length;
+			if (count==0) return;
+			int oldSize = size;
+			int newSize = size+count;
+			ensureCapacity(newSize);
+			
+			int first = indices[0];
+			int read = oldSize-1;
+			int r = count-1;
+			for (int write=newSize-1; write>=first; write--) {
+				if (r>=0 && indices[r]==write) {
+					data[write] = areas[r];
+					selected.clear(write);
+					positions.put(areas[r], write);
+					areaIndex.add(areas[r]);
+					r--;
+				} else {
+					data[write] = data[read];
+					selected.set(write, selected.get(read));
+					positions.put(data[write], write);
+					read--;
+				}
+			}
+			size = newSize;
+			
+			int last = indices[count-1];
+			if (last-first+1 == count)
+				fireIntervalAddedEvent(first, last);
+			else
+				fireScatteredEvents(first, oldSize-1, newSize-1, indices, true);
+		}
+		
+		private static int countDistinct(int[] sorted, int start, int limit) {
+			int count = 0;
+			for (int i=start; i<sorted.length && sorted[i]<limit; i++)
+				if (i==start || sorted[i]!=sorted[i-1]) count++;
+			return count;
 		}
 		
 		public void notifyAreaChanged(Area area) {
-			int index = data.indexOf(area);
-			if (index<0 || index>=data.size()) return;
+			notifyAreaChanged(indexOf(area));
+		}
+		
+		public void notifyAreaChanged(int index) {
+			if (index<0 || index>=size) return;
+			areaIndex.update(data[index]);
 			fireContentsChangedEvent(index, index);
 		}
 		
@@ -505,10 +951,36 @@ public class ImageMapEditor {
 		private void fireIntervalRemovedEvent(int first, int last) { fireEvent(first, last, ListDataEvent.INTERVAL_REMOVED, ListDataListener::intervalRemoved); }
 		private void fireIntervalAddedEvent  (int first, int last) { fireEvent(first, last, ListDataEvent.INTERVAL_ADDED  , ListDataListener::intervalAdded  ); }
 		private void fireEvent(int first, int last, int type, BiConsumer<ListDataListener,ListDataEvent> eventFcn) {
-			ListDataEvent e = new ListDataEvent(this, type, first, last);
+			fireEvent(new ListDataEvent(this, type, first, last), eventFcn);
+		}
+		private void fireEvent(ListDataEvent e, BiConsumer<ListDataListener,ListDataEvent> eventFcn) {
 			for (ListDataListener ldl:listDataListeners)
 				eventFcn.accept(ldl, e);
 		}
+		
+		/**
+		 * Reports a removal or insertion at scattered positions as removed range {@code first..oldLast} and added range {@code first..newLast}.
+		 */
+		private void fireScatteredEvents(int first, int oldLast, int newLast, int[] indices, boolean isInsertion) {
+			if (oldLast>=first) fireEvent(new ScatteredEvent(this, ListDataEvent.INTERVAL_REMOVED, first, oldLast, indices, isInsertion), ListDataListener::intervalRemoved);
+			if (newLast>=first) fireEvent(new ScatteredEvent(this, ListDataEvent.INTERVAL_ADDED  , first, newLast, indices, isInsertion), ListDataListener::intervalAdded  );
+		}
+		
+		/**
+		 * Both events of a removal or insertion at scattered positions carry the exact (ascending) positions,
+		 * so listeners, that track single changes, don't have to treat the whole reported range as changed.
+		 */
+		static class ScatteredEvent extends ListDataEvent {
+			private static final long serialVersionUID = -3417720561794377071L;
+			final int[] indices;
+			final boolean isInsertion;
+			
+			ScatteredEvent(Object source, int type, int index0, int index1, int[] indices, boolean isInsertion) {
+				super(source, type, index0, index1);
+				this.indices = indices;
+				this.isInsertion = isInsertion;
+			}
+		}
 	}
 	
 	public static class MapImage {
@@ -519,24 +991,102 @@ public class ImageMapEditor {
 		public final BufferedImage image;
 		public final File file;
 		public final String url;
+		/** size of the full resolution image; {@link #image} is smaller, if it's only a preview */
+		public final int width;
+		public final int height;
+		/** {@link #image} is only a preview, regions of the full resolution image are decoded on demand (see {@link RegionImage}) */
+		public final boolean decodeRegions;
+		private ImagePyramid imagePyramid;
+		
+		private static long regionDecodingThreshold = Runtime.getRuntime().maxMemory()/4;
+		private static long regionCacheBudget = Math.min(256L<<20, Runtime.getRuntime().maxMemory()/8);
+		
+		/**
+		 * Image files, whose decoded image would need more than {@code imageSizeThreshold} bytes, are loaded by {@link Loader} as preview only.
+		 * Their regions are decoded on demand and held in a cache of at most {@code cacheBudget} bytes per image.
+		 */
+		public static void setRegionDecoding(long imageSizeThreshold, long cacheBudget) {
+			regionDecodingThreshold = imageSizeThreshold;
+			regionCacheBudget = cacheBudget;
+		}
+		
+		static long getRegionCacheBudget() {
+			return regionCacheBudget;
+		}
+		
+		/**
+		 * Completely decoded images are held in a process wide cache of at most {@code bytes} bytes
+		 * and shared by all editors, that show the same file or URL.
+		 */
+		public static void setCacheBudget(long bytes) {
+			MapImageCache.setBudget(bytes);
+		}
+		
+		/**
+		 * Returns a tile pyramid of {@link #image}, that is built only once and shared by all views of this image.
+		 * Its levels are added to the bytes of the {@link MapImageCache}.
+		 */
+		ImagePyramid getImagePyramid() {
+			ImagePyramid pyramid;
+			synchronized (this) {
+				if (imagePyramid!=null) return imagePyramid;
+				pyramid = imagePyramid = new ImagePyramid(image, width, height, null);
+				pyramid.startBuilding();
+			}
+			MapImageCache.pyramidCreated(this, pyramid.getLevelBytes());
+			return pyramid;
+		}
+		
+		synchronized long getPyramidBytes() {
+			return imagePyramid==null ? 0 : imagePyramid.getLevelBytes();
+		}
 		
 		private MapImage(BufferedImage image, File file) {
-			this.type = Type.File;
-			this.image = image;
-			this.file = file;
-			this.url = null;
+			this(Type.File, image, image.getWidth(), image.getHeight(), false, file, null);
 		}
 
 		private MapImage(BufferedImage image, String url) {
-			this.type = Type.URL;
+			this(Type.URL, image, image.getWidth(), image.getHeight(), false, null, url);
+		}
+
+		private MapImage(Type type, BufferedImage image, int width, int height, boolean decodeRegions, File file, String url) {
+			this.type = type;
 			this.image = image;
-			this.file = null;
+			this.width = width;
+			this.height = height;
+			this.decodeRegions = decodeRegions;
+			this.file = file;
 			this.url = url;
 		}
+		
+		public boolean isPreview() {
+			return !decodeRegions && (image.getWidth()!=width || image.getHeight()!=height);
+		}
+		
+		boolean hasSameSource(MapImage other) {
+			if (other==null || type!=other.type) return false;
+			switch (type) {
+			case File: return file.equals(other.file);
+			case URL : return url.equals(other.url);
+			}
+			return false;
+		}
 
 		public static MapImage loadImage(File file) {
+			MapImage cached = MapImageCache.get(file);
+			if (cached!=null) return cached;
+			MapImageCache.FileStamp fileStamp = new MapImageCache.FileStamp(file);
 			try {
-				return new MapImage(ImageIO.read(file),file);
+				BufferedImage image;
+				Latency.Sample sample = Latency.IMAGE_LOAD.begin(file.getAbsolutePath());
+				try { image = ImageIO.read(file); } finally { sample.finish(); }
+				if (image==null) {
+					System.err.printf("Unknown image format of file \"%s\"%n", file.getAbsolutePath());
+					return null;
+				}
+				MapImage mapImage = new MapImage(image,file);
+				MapImageCache.put(mapImage, fileStamp);
+				return mapImage;
 			} catch (IOException e) {
 				//e.printStackTrace();
 				System.err.printf("IOException while loading image from file \"%s\": %s%n", file.getAbsolutePath(), e.getMessage());
@@ -545,8 +1095,19 @@ public class ImageMapEditor {
 		}
 
 		public static MapImage loadImage(String urlStr) {
+			MapImage cached = MapImageCache.get(urlStr);
+			if (cached!=null) return cached;
 			try {
-				return new MapImage(ImageIO.read(new URI(urlStr).toURL()),urlStr);
+				BufferedImage image;
+				Latency.Sample sample = Latency.IMAGE_LOAD.begin(urlStr);
+				try { image = ImageIO.read(new URI(urlStr).toURL()); } finally { sample.finish(); }
+				if (image==null) {
+					System.err.printf("Unknown image format at url \"%s\"%n", urlStr);
+					return null;
+				}
+				MapImage mapImage = new MapImage(image,urlStr);
+				MapImageCache.put(mapImage, null);
+				return mapImage;
 			} catch (MalformedURLException e) {
 				//e.printStackTrace();
 				System.err.printf("Malformed URL: \"%s\" -> %s%n", urlStr, e.getMessage());
@@ -561,5 +1122,148 @@ public class ImageMapEditor {
 				return null;
 			}
 		}
+		
+		public static Loader createLoader(File file, Consumer<MapImage> onLoaded) {
+			return new Loader(file, null, onLoaded);
+		}
+		
+		public static Loader createLoader(String urlStr, Consumer<MapImage> onLoaded) {
+			return new Loader(null, urlStr, onLoaded);
+		}
+		
+		/**
+		 * Decodes an image in the background.<br>
+		 * Progress (0..100) is reported via the {@code "progress"} property of the {@link SwingWorker}.
+		 * A canceled loader aborts its {@link ImageReader} at the next progress notification.
+		 * <p>
+		 * Large images are decoded twice: at first subsampled to a preview of at most {@link #PREVIEW_SIZE} pixels,
+		 * then in full resolution.
+		 * {@code onLoaded} is called in the event dispatch thread with the preview (see {@link MapImage#isPreview()})
+		 * and again, when the image is completely decoded. It's never called for a canceled loader.
+		 * <p>
+		 * Image files above the region decoding threshold (see {@link MapImage#setRegionDecoding(long, long)}) are not decoded in full resolution.
+		 * {@code onLoaded} gets only one {@link MapImage} with the preview and {@link MapImage#decodeRegions} set.
+		 */
+		public static class Loader extends SwingWorker<MapImage,MapImage> {
+			static final int PREVIEW_SIZE = 2048;
+			private static final int PREVIEW_PROGRESS = 20;
+			
+			private final File file;
+			private final String urlStr;
+			private final Consumer<MapImage> onLoaded;
+			private int progressOffset;
+			private int progressRange;
+			private MapImageCache.FileStamp fileStamp; // null for URLs
+			
+			private Loader(File file, String urlStr, Consumer<MapImage> onLoaded) {
+				this.file = file;
+				this.urlStr = urlStr;
+				this.onLoaded = onLoaded;
+				fileStamp = null;
+				progressOffset = 0;
+				progressRange = 100;
+			}
+			
+			public String getSource() {
+				return file!=null ? file.getAbsolutePath() : urlStr;
+			}
+			
+			@Override protected MapImage doInBackground() throws Exception {
+				MapImage cached = file!=null ? MapImageCache.get(file) : MapImageCache.get(urlStr);
+				if (cached!=null) return cached;
+				
+				Latency.Sample sample = Latency.IMAGE_LOAD.begin(getSource());
+				try {
+					if (file!=null) {
+						fileStamp = new MapImageCache.FileStamp(file);
+						try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+							return decode(in);
+						}
+					}
+					
+					URL url = new URI(urlStr).toURL();
+					try (InputStream stream = url.openStream(); ImageInputStream in = ImageIO.createImageInputStream(stream)) {
+						return decode(in);
+					}
+				} finally {
+					sample.finish();
+				}
+			}
+			
+			private MapImage createMapImage(BufferedImage image, int width, int height, boolean decodeRegions) {
+				if (file!=null) return new MapImage(Type.File, image, width, height, decodeRegions, file, null);
+				else            return new MapImage(Type.URL , image, width, height, decodeRegions, null, urlStr);
+			}
+			
+			private MapImage decode(ImageInputStream in) throws IOException {
+				if (in==null) throw new IOException("Can't open image stream");
+				Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+				if (!readers.hasNext()) throw new IOException("Unknown image format");
+				
+				ImageReader reader = readers.next();
+				try {
+					reader.setInput(in, false, true); // not seek forward only: image is read twice
+					reader.addIIOReadProgressListener(new ProgressListener());
+					int width  = reader.getWidth (0);
+					int height = reader.getHeight(0);
+					
+					int subsampling = (Math.max(width, height)+PREVIEW_SIZE-1) / PREVIEW_SIZE;
+					// regions can only be decoded on demand from a file, an URL stream would be read again and again
+					boolean decodeRegions = file!=null && subsampling>2 && 4L*width*height > regionDecodingThreshold;
+					if (subsampling>2) {
+						ImageReadParam param = reader.getDefaultReadParam();
+						param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+						// with region decoding, the preview is all, that is loaded here
+						progressRange = decodeRegions ? 100 : PREVIEW_PROGRESS;
+						BufferedImage preview = reader.read(0, param);
+						if (isCancelled()) return null;
+						if (decodeRegions) return createMapImage(preview, width, height, true);
+						publish(createMapImage(preview, width, height, false));
+						progressOffset = PREVIEW_PROGRESS;
+						progressRange = 100-PREVIEW_PROGRESS;
+					}
+					
+					BufferedImage image = reader.read(0);
+					if (isCancelled()) return null;
+					MapImage mapImage = createMapImage(image, width, height, false);
+					MapImageCache.put(mapImage, fileStamp);
+					return mapImage;
+				} finally {
+					reader.dispose();
+				}
+			}
+			
+			@Override protected void process(List<MapImage> previews) {
+				// a late preview is dropped, if the full image is already there
+				if (isDone() || previews.isEmpty()) return;
+				onLoaded.accept(previews.get(previews.size()-1));
+			}
+			
+			@Override protected void done() {
+				if (isCancelled()) return;
+				try {
+					MapImage mapImage = get();
+					if (mapImage!=null) onLoaded.accept(mapImage);
+				} catch (InterruptedException | ExecutionException e) {
+					Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+					System.err.printf("%s while loading image from \"%s\": %s%n", cause.getClass().getSimpleName(), getSource(), cause.getMessage());
+				}
+			}
+			
+			private class ProgressListener implements IIOReadProgressListener {
+				@Override public void imageProgress(ImageReader source, float percentageDone) {
+					if (isCancelled()) { source.abort(); return; }
+					setProgress(progressOffset + Math.max(0, Math.min(100, Math.round(percentageDone)))*progressRange/100);
+				}
+				@Override public void imageComplete    (ImageReader source) { setProgress(progressOffset+progressRange); }
+				@Override public void imageStarted     (ImageReader source, int imageIndex) {}
+				@Override public void sequenceStarted  (ImageReader source, int minIndex) {}
+				@Override public void sequenceComplete (ImageReader source) {}
+				@Override public void thumbnailStarted (ImageReader source, int imageIndex, int thumbnailIndex) {}
+				@Override public void thumbnailProgress(ImageReader source, float percentageDone) {}
+				@Override public void thumbnailComplete(ImageReader source) {}
+				@Override public void readAborted      (ImageReader source) {}
+			}
+		}
 	}
 }
@@ -0,0 +1,175 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Tile pyramid of an image.<br>
+ * Level 0 holds tiles of the original image, each further level has half the resolution of the previous one.
+ * All tiles have a size of {@link #TILE_SIZE} x {@link #TILE_SIZE} (except the ones at the right and lower border).
+ * Level 0 is available at once, all other levels are generated by a background thread.
+ * <p>
+ * The image may be a reduced version (e.g. a preview) of an image with a larger size.
+ * All coordinates given to or by the pyramid are in pixels of this full size.
+ */
+class ImagePyramid implements TileSource {
+	static final int TILE_SIZE = 256;
+
+	private final BufferedImage image;
+	private final int width;
+	private final int height;
+	private final double scale; // full size pixels per image pixel
+	private final BufferedImage[][][] levels; // [level][tileY][tileX]
+	private final CopyOnWriteArrayList<Runnable> levelAddedListeners;
+	private volatile int availableLevels;
+	private volatile boolean isCanceled;
+	private Thread builder;
+
+	ImagePyramid(BufferedImage image, Runnable levelAddedListener) {
+		this(image, image.getWidth(), image.getHeight(), levelAddedListener);
+	}
+	
+	ImagePyramid(BufferedImage image, int width, int height, Runnable levelAddedListener) {
+		this.image = image;
+		this.width = width;
+		this.height = height;
+		this.scale = width / (double) image.getWidth();
+		this.levelAddedListeners = new CopyOnWriteArrayList<>();
+		if (levelAddedListener!=null) levelAddedListeners.add(levelAddedListener);
+
+		int levelCount = 1;
+		while (Math.max(image.getWidth(),image.getHeight()) > (TILE_SIZE<<(levelCount-1)))
+			levelCount++;
+		levels = new BufferedImage[levelCount][][];
+
+		int tilesX = getTileCount(image.getWidth (), 0);
+		int tilesY = getTileCount(image.getHeight(), 0);
+		levels[0] = new BufferedImage[tilesY][tilesX];
+		for (int tY=0; tY<tilesY; tY++)
+			for (int tX=0; tX<tilesX; tX++) {
+				int x = tX*TILE_SIZE;
+				int y = tY*TILE_SIZE;
+				levels[0][tY][tX] = image.getSubimage(x, y, Math.min(TILE_SIZE, image.getWidth()-x), Math.min(TILE_SIZE, image.getHeight()-y));
+			}
+		availableLevels = 1;
+		isCanceled = false;
+		builder = null;
+	}
+
+	private static int getTileCount(int imageSize, int level) {
+		int tileSize = TILE_SIZE<<level;
+		return (imageSize+tileSize-1)/tileSize;
+	}
+
+	/** width or height of tile {@code t} of a level */
+	private static int getTileSize(int imageSize, int t, int level) {
+		return (Math.min((t+1)*(TILE_SIZE<<level), imageSize) - t*(TILE_SIZE<<level) + (1<<level)-1) >> level;
+	}
+
+	/**
+	 * Returns the bytes of all levels above level 0, when they are built. Level 0 shares the data of the image.
+	 */
+	long getLevelBytes() {
+		long bytes = 0;
+		for (int level=1; level<levels.length; level++) {
+			long levelWidth = 0, levelHeight = 0;
+			for (int tX=0; tX<getTileCount(image.getWidth (), level); tX++) levelWidth  += getTileSize(image.getWidth (), tX, level);
+			for (int tY=0; tY<getTileCount(image.getHeight(), level); tY++) levelHeight += getTileSize(image.getHeight(), tY, level);
+			bytes += 4*levelWidth*levelHeight; // TYPE_INT_(A)RGB
+		}
+		return bytes;
+	}
+
+	@Override public int getWidth () { return width ; }
+	@Override public int getHeight() { return height; }
+	BufferedImage getImage() { return image; }
+
+	void    addLevelAddedListener(Runnable l) { levelAddedListeners.   add(l); }
+	void removeLevelAddedListener(Runnable l) { levelAddedListeners.remove(l); }
+
+	void startBuilding() {
+		if (builder!=null || levels.length<=1) return;
+		builder = new Thread(this::buildLevels, "ImagePyramid.Builder");
+		builder.setDaemon(true);
+		builder.setPriority(Thread.MIN_PRIORITY);
+		builder.start();
+	}
+
+	@Override public void cancel() {
+		isCanceled = true;
+	}
+
+	private void buildLevels() {
+		int imageType = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		for (int level=1; level<levels.length; level++) {
+			BufferedImage[][] prev = levels[level-1];
+			int tilesX = getTileCount(image.getWidth (), level);
+			int tilesY = getTileCount(image.getHeight(), level);
+			BufferedImage[][] tiles = new BufferedImage[tilesY][tilesX];
+
+			for (int tY=0; tY<tilesY; tY++)
+				for (int tX=0; tX<tilesX; tX++) {
+					if (isCanceled) return;
+					int w = getTileSize(image.getWidth (), tX, level);
+					int h = getTileSize(image.getHeight(), tY, level);
+					BufferedImage tile = new BufferedImage(w, h, imageType);
+					Graphics2D g2 = tile.createGraphics();
+					g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+					for (int sY=0; sY<2; sY++)
+						for (int sX=0; sX<2; sX++) {
+							int pX = 2*tX+sX;
+							int pY = 2*tY+sY;
+							if (pY>=prev.length || pX>=prev[pY].length) continue;
+							BufferedImage src = prev[pY][pX];
+							g2.drawImage(src, sX*TILE_SIZE/2, sY*TILE_SIZE/2, (src.getWidth()+1)/2, (src.getHeight()+1)/2, null);
+						}
+					g2.dispose();
+					tiles[tY][tX] = tile;
+				}
+
+			levels[level] = tiles;
+			availableLevels = level+1;
+			for (Runnable l : levelAddedListeners)
+				SwingUtilities.invokeLater(l);
+		}
+	}
+
+	/**
+	 * Returns the level, that matches a scale of {@code pixelPerLength} screen pixels per full size pixel best,
+	 * without going below screen resolution. Only levels, that are already generated, are taken into account.
+	 */
+	@Override public int getLevel(double pixelPerLength) {
+		int level = 0;
+		int maxLevel = availableLevels-1;
+		pixelPerLength *= scale;
+		while (level<maxLevel && pixelPerLength*(2<<level) <= 1.0)
+			level++;
+		return level;
+	}
+
+	@Override public boolean isInMemory() {
+		return true;
+	}
+
+	@Override public void forEachTile(int level, double minX, double minY, double maxX, double maxY, TileAction action) {
+		BufferedImage[][] tiles = levels[level];
+		double tileSize = (TILE_SIZE<<level)*scale;
+		int minTX = Math.max(0, (int) Math.floor(minX/tileSize));
+		int minTY = Math.max(0, (int) Math.floor(minY/tileSize));
+		int maxTY = Math.min(tiles.length-1, (int) Math.floor(maxY/tileSize));
+		for (int tY=minTY; tY<=maxTY; tY++) {
+			int maxTX = Math.min(tiles[tY].length-1, (int) Math.floor(maxX/tileSize));
+			for (int tX=minTX; tX<=maxTX; tX++) {
+				int x0 = (int) Math.round(tX*tileSize);
+				int y0 = (int) Math.round(tY*tileSize);
+				int x1 = Math.min((int) Math.round((tX+1)*tileSize), width );
+				int y1 = Math.min((int) Math.round((tY+1)*tileSize), height);
+				action.draw(tiles[tY][tX], x0, y0, x1, y1);
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency measurement of the editor's hot paths.<br>
+ * Every {@link Probe} collects the durations of its operation in a log-linear {@link Histogram}
+ * and emits each measurement as a JDK Flight Recorder event ({@link LatencyEvent}),
+ * that can be recorded with {@code -XX:StartFlightRecording} or JDK Mission Control.
+ * On a JRE without JFR only the histograms are recorded.
+ * <pre>
+ * Latency.Sample sample = Latency.PAINT.begin();
+ * try { ... } finally { sample.finish(); }
+ * </pre>
+ */
+class Latency {
+	static final Probe PAINT      = new Probe("Paint Canvas");
+	static final Probe HIGHLIGHT  = new Probe("Highlight Area");
+	static final Probe DRAG       = new Probe("Drag Area");
+	static final Probe IMAGE_LOAD = new Probe("Load Image");
+	static final Probe EXPORT     = new Probe("Write HTML");
+	static final Probe[] PROBES = { PAINT, HIGHLIGHT, DRAG, IMAGE_LOAD, EXPORT };
+
+	static void dump(PrintStream out) {
+		out.printf("Latencies:%n");
+		out.printf("   %-16s %8s %10s %10s %10s %10s %10s %10s%n", "", "count", "mean", "p50", "p90", "p99", "p99.9", "max");
+		for (Probe probe : PROBES) {
+			Histogram h = probe.histogram;
+			long count = h.getCount();
+			if (count==0) { out.printf("   %-16s %8d%n", probe.name, count); continue; }
+			out.printf("   %-16s %8d %10s %10s %10s %10s %10s %10s%n", probe.name, count,
+					formatNanos(h.getMean()),
+					formatNanos(h.getPercentile(0.50)),
+					formatNanos(h.getPercentile(0.90)),
+					formatNanos(h.getPercentile(0.99)),
+					formatNanos(h.getPercentile(0.999)),
+					formatNanos(h.getMax()));
+		}
+	}
+
+	static void reset() {
+		for (Probe probe : PROBES)
+			probe.histogram.reset();
+	}
+
+	static String formatNanos(double nanos) {
+		if (nanos<1e3) return String.format("%1.0f ns", nanos);
+		if (nanos<1e6) return String.format("%1.1f us", nanos/1e3);
+		if (nanos<1e9) return String.format("%1.2f ms", nanos/1e6);
+		return String.format("%1.2f s", nanos/1e9);
+	}
+
+	static class Probe {
+		final String name;
+		final Histogram histogram;
+
+		Probe(String name) {
+			this.name = name;
+			histogram = new Histogram();
+		}
+
+		Sample begin() { return begin(null); }
+		Sample begin(String detail) {
+			return new Sample(this, detail);
+		}
+	}
+
+	/**
+	 * One measurement of a {@link Probe}. If JFR is available, it's also recorded as {@link LatencyEvent}, that is started together with the sample,
+	 * so the recording gets the real start and duration.
+	 */
+	static class Sample {
+		private final Probe probe;
+		private final Object event; // null without JFR
+		private final long startNanos;
+
+		private Sample(Probe probe, String detail) {
+			this.probe = probe;
+			event = LatencyEvent.begin(probe.name, detail);
+			startNanos = System.nanoTime();
+		}
+
+		void finish() {
+			probe.histogram.record(System.nanoTime()-startNanos);
+			if (event!=null) LatencyEvent.commit(event);
+		}
+	}
+
+	/**
+	 * Histogram of durations in nanoseconds with log-linear buckets:
+	 * values below {@link #SUB_BUCKETS} have their own bucket,
+	 * each larger power of two is split into {@link #SUB_BUCKETS} linear buckets (relative error below 1/{@link #SUB_BUCKETS}).
+	 * Recording is lock free and allocation free.
+	 */
+	static class Histogram {
+		private static final int SUB_BUCKET_BITS = 4;
+		private static final int SUB_BUCKETS = 1<<SUB_BUCKET_BITS;
+		private static final int BUCKET_COUNT = (64-SUB_BUCKET_BITS)*SUB_BUCKETS;
+
+		private final AtomicLongArray counts;
+		private final AtomicLong count;
+		private final AtomicLong sum;
+		private final AtomicLong max;
+
+		Histogram() {
+			counts = new AtomicLongArray(BUCKET_COUNT);
+			count = new AtomicLong();
+			sum = new AtomicLong();
+			max = new AtomicLong();
+		}
+
+		void record(long nanos) {
+			if (nanos<0) nanos = 0;
+			counts.incrementAndGet(getBucket(nanos));
+			count.incrementAndGet();
+			sum.addAndGet(nanos);
+			long m = max.get();
+			while (nanos>m && !max.compareAndSet(m, nanos))
+				m = max.get();
+		}
+
+		void reset() {
+			for (int i=0; i<BUCKET_COUNT; i++) counts.set(i, 0);
+			count.set(0);
+			sum.set(0);
+			max.set(0);
+		}
+
+		long getCount() { return count.get(); }
+		long getMax() { return max.get(); }
+		double getMean() {
+			long n = count.get();
+			return n==0 ? 0 : sum.get() / (double) n;
+		}
+
+		/**
+		 * Returns the upper bound of the bucket, that contains the value at {@code quantile} (0..1), or 0 for an empty histogram.
+		 */
+		long getPercentile(double quantile) {
+			long n = count.get();
+			if (n==0) return 0;
+			long rank = Math.max(1, (long) Math.ceil(quantile*n));
+			long cumulated = 0;
+			for (int i=0; i<BUCKET_COUNT; i++) {
+				cumulated += counts.get(i);
+				if (cumulated>=rank)
+					return Math.min(getLowerBound(i+1)-1, max.get());
+			}
+			return max.get();
+		}
+
+		static int getBucket(long value) {
+			if (value<SUB_BUCKETS) return (int) value;
+			int shift = 63-Long.numberOfLeadingZeros(value)-SUB_BUCKET_BITS;
+			int sub = (int) (value>>>shift) & (SUB_BUCKETS-1);
+			return (shift+1)*SUB_BUCKETS + sub;
+		}
+
+		static long getLowerBound(int bucket) {
+			if (bucket<SUB_BUCKETS) return bucket;
+			int shift = bucket/SUB_BUCKETS-1;
+			if (shift>=64-SUB_BUCKET_BITS) return Long.MAX_VALUE;
+			return (long) (SUB_BUCKETS + bucket%SUB_BUCKETS) << shift;
+		}
+	}
+}
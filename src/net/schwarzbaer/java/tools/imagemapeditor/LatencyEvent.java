@@ -0,0 +1,105 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JDK Flight Recorder event of a {@link Latency.Sample}.<br>
+ * The event type is defined at runtime with {@code jdk.jfr.EventFactory} and is only accessed through reflection,
+ * so the editor still compiles for and runs on Java 8, where {@code jdk.jfr} doesn't exist.
+ * Then {@link #IS_AVAILABLE} is {@code false} and {@link #begin(String, String)} returns {@code null}.
+ */
+class LatencyEvent {
+	private static final String NAME = "net.schwarzbaer.ImageMapEditor.Operation";
+	private static final int FIELD_OPERATION = 0;
+	private static final int FIELD_DETAIL    = 1;
+
+	private static final MethodHandle NEW_EVENT; // () -> Object, bound to the EventFactory
+	private static final MethodHandle SET;       // (Object event, int index, Object value) -> void
+	private static final MethodHandle BEGIN;     // (Object event) -> void
+	private static final MethodHandle COMMIT;    // (Object event) -> void
+	static final boolean IS_AVAILABLE;
+
+	static {
+		MethodHandle[] handles = createHandles();
+		IS_AVAILABLE = handles!=null;
+		NEW_EVENT = IS_AVAILABLE ? handles[0] : null;
+		SET       = IS_AVAILABLE ? handles[1] : null;
+		BEGIN     = IS_AVAILABLE ? handles[2] : null;
+		COMMIT    = IS_AVAILABLE ? handles[3] : null;
+	}
+
+	private static MethodHandle[] createHandles() {
+		try {
+			ClassLoader loader = LatencyEvent.class.getClassLoader();
+			Class<?> eventClass        = Class.forName("jdk.jfr.Event"            , false, loader);
+			Class<?> factoryClass      = Class.forName("jdk.jfr.EventFactory"     , false, loader);
+			Class<?> annotationClass   = Class.forName("jdk.jfr.AnnotationElement", false, loader);
+			Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor", false, loader);
+			Constructor<?> newAnnotation      = annotationClass.getConstructor(Class.class, Object.class);
+			Constructor<?> newValueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class, List.class);
+
+			List<Object> annotations = Arrays.asList(
+				newAnnotation.newInstance(Class.forName("jdk.jfr.Name"       , false, loader), NAME),
+				newAnnotation.newInstance(Class.forName("jdk.jfr.Label"      , false, loader), "Editor Operation"),
+				newAnnotation.newInstance(Class.forName("jdk.jfr.Description", false, loader), "Duration of a hot path of the image map editor"),
+				newAnnotation.newInstance(Class.forName("jdk.jfr.Category"   , false, loader), new String[] { "Image Map Editor" }),
+				newAnnotation.newInstance(Class.forName("jdk.jfr.StackTrace" , false, loader), false)
+			);
+			Class<?> labelClass = Class.forName("jdk.jfr.Label", false, loader);
+			List<Object> fields = Arrays.asList(
+				newValueDescriptor.newInstance(String.class, "operation", Collections.singletonList(newAnnotation.newInstance(labelClass, "Operation"))),
+				newValueDescriptor.newInstance(String.class, "detail"   , Collections.singletonList(newAnnotation.newInstance(labelClass, "Detail")))
+			);
+			Method create = factoryClass.getMethod("create", List.class, List.class);
+			Object factory = create.invoke(null, annotations, fields);
+
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			MethodType toVoid = MethodType.methodType(void.class, Object.class);
+			return new MethodHandle[] {
+				lookup.findVirtual(factoryClass, "newEvent", MethodType.methodType(eventClass)).bindTo(factory).asType(MethodType.methodType(Object.class)),
+				lookup.findVirtual(eventClass, "set"   , MethodType.methodType(void.class, int.class, Object.class)).asType(MethodType.methodType(void.class, Object.class, int.class, Object.class)),
+				lookup.findVirtual(eventClass, "begin" , MethodType.methodType(void.class)).asType(toVoid),
+				lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class)).asType(toVoid),
+			};
+		} catch (ClassNotFoundException e) {
+			return null; // no JFR (Java 8 or a runtime without the jdk.jfr module)
+		} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+			System.err.printf("Can't define the JFR event \"%s\": %s%n", NAME, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Creates and starts an event. Returns {@code null}, if JFR isn't available.
+	 */
+	static Object begin(String operation, String detail) {
+		if (!IS_AVAILABLE) return null;
+		try {
+			Object event = (Object) NEW_EVENT.invokeExact();
+			SET.invokeExact(event, FIELD_OPERATION, (Object) operation);
+			SET.invokeExact(event, FIELD_DETAIL   , (Object) detail);
+			BEGIN.invokeExact(event);
+			return event;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Ends the event and writes it, if JFR is recording.
+	 */
+	static void commit(Object event) {
+		try {
+			COMMIT.invokeExact(event);
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.schwarzbaer.java.tools.imagemapeditor.ImageMapEditor.MapImage;
+
+/**
+ * Process wide cache of decoded {@link MapImage}s, shared by all editor windows.<br>
+ * Images are keyed by canonical file path or by URL. The cache is limited to a byte budget,
+ * least recently used images are evicted first. The budget covers the images and the levels of their {@link ImagePyramid}s.
+ * An image file, that was modified after it was decoded, is decoded again.
+ * Evicted images stay valid for everyone, who still holds a reference.
+ */
+class MapImageCache {
+	private static final LinkedHashMap<String,Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private static long budget = Math.min(512L<<20, Runtime.getRuntime().maxMemory()/4);
+	private static long usedBytes = 0;
+
+	/**
+	 * Modification time and length of an image file.
+	 * It's taken before the file is decoded, so a file, that is replaced while it's decoded, doesn't match the cached image.
+	 */
+	static class FileStamp {
+		final long lastModified;
+		final long length;
+
+		FileStamp(File file) {
+			lastModified = file.lastModified();
+			length = file.length();
+		}
+
+		boolean matches(File file) {
+			return lastModified==file.lastModified() && length==file.length();
+		}
+	}
+
+	private static class Entry {
+		final MapImage mapImage;
+		final FileStamp fileStamp; // null for URLs
+		final long imageBytes;
+		long pyramidBytes;
+
+		Entry(MapImage mapImage, FileStamp fileStamp, long imageBytes, long pyramidBytes) {
+			this.mapImage = mapImage;
+			this.fileStamp = fileStamp;
+			this.imageBytes = imageBytes;
+			this.pyramidBytes = pyramidBytes;
+		}
+
+		long getBytes() {
+			return imageBytes+pyramidBytes;
+		}
+	}
+
+	private static String getKey(File file) {
+		try { return "file:"+file.getCanonicalPath(); }
+		catch (IOException e) { return "file:"+file.getAbsolutePath(); }
+	}
+
+	private static String getKey(String url) {
+		return "url:"+url;
+	}
+
+	static synchronized MapImage get(File file) {
+		String key = getKey(file);
+		Entry entry = entries.get(key);
+		if (entry==null) return null;
+		if (entry.fileStamp==null || !entry.fileStamp.matches(file)) {
+			remove(key);
+			return null;
+		}
+		return entry.mapImage;
+	}
+
+	static synchronized MapImage get(String url) {
+		Entry entry = entries.get(getKey(url));
+		return entry==null ? null : entry.mapImage;
+	}
+
+	/**
+	 * Adds a completely decoded image. Previews and images larger than the budget are ignored.<br>
+	 * {@code fileStamp} of an image file has to be taken before it was decoded.
+	 */
+	static void put(MapImage mapImage, FileStamp fileStamp) {
+		if (mapImage==null || mapImage.isPreview()) return;
+		if (mapImage.file!=null && fileStamp==null) return;
+		long imageBytes = getByteSize(mapImage.image);
+		long pyramidBytes = mapImage.getPyramidBytes(); // not under the cache's lock, so both locks are never held together
+		
+		synchronized (MapImageCache.class) {
+			if (imageBytes+pyramidBytes>budget) return;
+			String key = mapImage.file!=null ? getKey(mapImage.file) : getKey(mapImage.url);
+			Entry entry = new Entry(mapImage, mapImage.file!=null ? fileStamp : null, imageBytes, pyramidBytes);
+			remove(key);
+			entries.put(key, entry);
+			usedBytes += entry.getBytes();
+			evict();
+		}
+	}
+
+	/**
+	 * Adds the levels of the pyramid of a cached image (see {@link ImagePyramid#getLevelBytes()}) to the used bytes.
+	 */
+	static synchronized void pyramidCreated(MapImage mapImage, long pyramidBytes) {
+		String key = mapImage.file!=null ? getKey(mapImage.file) : getKey(mapImage.url);
+		Entry entry = entries.get(key);
+		if (entry==null || entry.mapImage!=mapImage) return;
+		usedBytes += pyramidBytes-entry.pyramidBytes;
+		entry.pyramidBytes = pyramidBytes;
+		evict();
+	}
+
+	private static void remove(String key) {
+		Entry old = entries.remove(key);
+		if (old!=null) usedBytes -= old.getBytes();
+	}
+
+	private static void evict() {
+		Iterator<Map.Entry<String,Entry>> it = entries.entrySet().iterator();
+		while (usedBytes>budget && it.hasNext()) {
+			usedBytes -= it.next().getValue().getBytes();
+			it.remove();
+		}
+	}
+
+	static synchronized void setBudget(long bytes) {
+		budget = bytes;
+		evict();
+	}
+
+	static synchronized void clear() {
+		entries.clear();
+		usedBytes = 0;
+	}
+
+	static synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	static long getByteSize(BufferedImage image) {
+		DataBuffer data = image.getRaster().getDataBuffer();
+		return (long) data.getSize() * data.getNumBanks() * DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+	}
+}
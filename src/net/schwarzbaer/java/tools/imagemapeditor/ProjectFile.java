@@ -0,0 +1,359 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Native project file: image reference, view state and all areas in a compact binary layout.<br>
+ * <pre>
+ * int magic ("IMEP"), int version
+ * sections: int tag, int length, payload
+ *    STRINGS: varint count, count x (varint length, UTF-8 bytes)
+ *    IMAGE  : byte kind (none, file, URL), string (file path relative to the project folder, if possible)
+ *    VIEW   : double centerX, double centerY, double scale
+ *    AREAS  : varint count, count x (byte type, varint title, varint onclick, zigzag varint coordinates)
+ * </pre>
+ * Titles and onclick values are indices into the string table (0 = {@code null}), so repeated values are stored once.
+ * Rectangles are stored as corner and size, circles as center and radius.
+ * Unknown sections are skipped. Files are read completely into a heap buffer, because a memory mapped file stays mapped
+ * until the buffer is garbage collected, and on Windows such a file can't be replaced or deleted in the meantime.
+ */
+class ProjectFile {
+	static final String EXTENSION = "imep";
+
+	private static final int MAGIC   = 0x494D4550;
+	private static final int VERSION = 1;
+
+	private static final int SECTION_STRINGS = 1;
+	private static final int SECTION_IMAGE   = 2;
+	private static final int SECTION_VIEW    = 3;
+	private static final int SECTION_AREAS   = 4;
+
+	private static final int IMAGE_NONE = 0;
+	private static final int IMAGE_FILE = 1;
+	private static final int IMAGE_URL  = 2;
+
+	private static final int AREA_CIRCLE = 0;
+	private static final int AREA_RECT   = 1;
+
+	final File imageFile;
+	final String imageURL;
+	/** center x, center y and scale of the view or {@code null} */
+	final double[] view;
+	final Area[] areas;
+
+	ProjectFile(File imageFile, String imageURL, double[] view, Area[] areas) {
+		this.imageFile = imageFile;
+		this.imageURL = imageURL;
+		this.view = view;
+		this.areas = areas;
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	//   writing
+
+	static void write(File file, File imageFile, String imageURL, double[] view, Iterable<Area> areas) throws IOException {
+		HashMap<String,Integer> stringIndex = new HashMap<>();
+		Buffer strings = new Buffer(1<<12);
+		Buffer areaData = new Buffer(1<<16);
+		int areaCount = 0;
+		for (Area area : areas) {
+			Area.Shape shape = area.shape;
+			switch (shape.type) {
+			case Circle:
+				areaData.putByte(AREA_CIRCLE);
+				areaData.putVarInt(getStringIndex(area.title  , stringIndex, strings));
+				areaData.putVarInt(getStringIndex(area.onclick, stringIndex, strings));
+				areaData.putZigZag(shape.center.x);
+				areaData.putZigZag(shape.center.y);
+				areaData.putZigZag(shape.radius);
+				break;
+			case Rect:
+				areaData.putByte(AREA_RECT);
+				areaData.putVarInt(getStringIndex(area.title  , stringIndex, strings));
+				areaData.putVarInt(getStringIndex(area.onclick, stringIndex, strings));
+				areaData.putZigZag(shape.corner1.x);
+				areaData.putZigZag(shape.corner1.y);
+				areaData.putZigZag(shape.corner2.x-shape.corner1.x);
+				areaData.putZigZag(shape.corner2.y-shape.corner1.y);
+				break;
+			}
+			areaCount++;
+		}
+
+		Buffer out = new Buffer(areaData.length + strings.length + (1<<10));
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+
+		int start = out.beginSection(SECTION_STRINGS);
+		out.putVarInt(stringIndex.size());
+		out.put(strings);
+		out.endSection(start);
+
+		start = out.beginSection(SECTION_IMAGE);
+		if (imageFile!=null) {
+			out.putByte(IMAGE_FILE);
+			out.putString(getRelativePath(file, imageFile));
+		} else if (imageURL!=null) {
+			out.putByte(IMAGE_URL);
+			out.putString(imageURL);
+		} else
+			out.putByte(IMAGE_NONE);
+		out.endSection(start);
+
+		if (view!=null) {
+			start = out.beginSection(SECTION_VIEW);
+			for (int i=0; i<3; i++) out.putLong(Double.doubleToLongBits(view[i]));
+			out.endSection(start);
+		}
+
+		start = out.beginSection(SECTION_AREAS);
+		out.putVarInt(areaCount);
+		out.put(areaData);
+		out.endSection(start);
+
+		// write to a temporary file first, so an existing project isn't destroyed by a failed write
+		// and sync it before the move, so after an OS crash the file is either the old or the complete new one
+		File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName()+".tmp");
+		try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(out.bytes, 0, out.length);
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(true);
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static int getStringIndex(String str, HashMap<String,Integer> stringIndex, Buffer strings) {
+		if (str==null) return 0;
+		Integer index = stringIndex.get(str);
+		if (index==null) {
+			index = stringIndex.size()+1;
+			stringIndex.put(str, index);
+			strings.putString(str);
+		}
+		return index;
+	}
+
+	private static String getRelativePath(File projectFile, File imageFile) {
+		File projectFolder = projectFile.getAbsoluteFile().getParentFile();
+		if (projectFolder==null) return imageFile.getAbsolutePath();
+		try {
+			return projectFolder.toPath().relativize(imageFile.getAbsoluteFile().toPath()).toString();
+		} catch (IllegalArgumentException e) { // e.g. different drives
+			return imageFile.getAbsolutePath();
+		}
+	}
+
+	static class Buffer {
+		byte[] bytes;
+		int length;
+
+		Buffer(int capacity) {
+			bytes = new byte[capacity];
+			length = 0;
+		}
+
+		private void ensureFree(int count) {
+			if (bytes.length-length < count)
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length*2, length+count));
+		}
+
+		void putByte(int value) {
+			ensureFree(1);
+			bytes[length++] = (byte) value;
+		}
+
+		void putInt(int value) {
+			ensureFree(4);
+			setInt(length, value);
+			length += 4;
+		}
+
+		void setInt(int pos, int value) {
+			bytes[pos  ] = (byte) (value>>24);
+			bytes[pos+1] = (byte) (value>>16);
+			bytes[pos+2] = (byte) (value>> 8);
+			bytes[pos+3] = (byte)  value;
+		}
+
+		void putLong(long value) {
+			putInt((int) (value>>32));
+			putInt((int)  value     );
+		}
+
+		void putVarInt(int value) {
+			ensureFree(5);
+			while ((value & ~0x7F)!=0) {
+				bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		void putZigZag(int value) {
+			putVarInt((value<<1) ^ (value>>31));
+		}
+
+		void putString(String str) {
+			byte[] utf8 = str.getBytes(StandardCharsets.UTF_8);
+			putVarInt(utf8.length);
+			ensureFree(utf8.length);
+			System.arraycopy(utf8, 0, bytes, length, utf8.length);
+			length += utf8.length;
+		}
+
+		void put(Buffer buffer) {
+			ensureFree(buffer.length);
+			System.arraycopy(buffer.bytes, 0, bytes, length, buffer.length);
+			length += buffer.length;
+		}
+
+		int beginSection(int tag) {
+			putInt(tag);
+			putInt(0);
+			return length;
+		}
+
+		void endSection(int start) {
+			setInt(start-4, length-start);
+		}
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	//   reading
+
+	static ProjectFile read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = readFully(channel);
+			try {
+				return read(file, buffer);
+			} catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+				throw new IOException("Unexpected end of data", e);
+			}
+		}
+	}
+
+	/**
+	 * Reads the whole content of {@code channel} into a heap buffer, that is ready for reading.
+	 */
+	static ByteBuffer readFully(FileChannel channel) throws IOException {
+		if (channel.size()>Integer.MAX_VALUE) throw new IOException("File is too large");
+		ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+		while (buffer.hasRemaining())
+			if (channel.read(buffer)<0) break; // truncated while reading
+		buffer.flip();
+		return buffer;
+	}
+
+	private static ProjectFile read(File file, ByteBuffer buffer) throws IOException {
+		if (buffer.remaining()<8 || buffer.getInt()!=MAGIC) throw new IOException("Not a project file");
+		int version = buffer.getInt();
+		if (version>VERSION) throw new IOException(String.format("Unsupported version %d", version));
+
+		String[] strings = new String[] { null };
+		File imageFile = null;
+		String imageURL = null;
+		double[] view = null;
+		Area[] areas = new Area[0];
+
+		byte[] utf8 = new byte[256];
+		while (buffer.hasRemaining()) {
+			int tag = buffer.getInt();
+			int length = buffer.getInt();
+			if (length<0 || length>buffer.remaining()) throw new IOException(String.format("Corrupt section %d", tag));
+			int end = buffer.position()+length;
+
+			switch (tag) {
+			case SECTION_STRINGS:
+				strings = new String[getVarInt(buffer)+1];
+				for (int i=1; i<strings.length; i++) {
+					int n = getVarInt(buffer);
+					if (utf8.length<n) utf8 = new byte[Math.max(n, utf8.length*2)];
+					buffer.get(utf8, 0, n);
+					strings[i] = new String(utf8, 0, n, StandardCharsets.UTF_8);
+				}
+				break;
+
+			case SECTION_IMAGE:
+				int kind = buffer.get();
+				if (kind==IMAGE_NONE) break;
+				byte[] bytes = new byte[getVarInt(buffer)];
+				buffer.get(bytes);
+				String str = new String(bytes, StandardCharsets.UTF_8);
+				if (kind==IMAGE_URL) imageURL = str;
+				else {
+					imageFile = new File(str);
+					if (!imageFile.isAbsolute()) imageFile = new File(file.getAbsoluteFile().getParentFile(), str);
+				}
+				break;
+
+			case SECTION_VIEW:
+				view = new double[] { buffer.getDouble(), buffer.getDouble(), buffer.getDouble() };
+				if (!EditorView.isValidView(view[0], view[1], view[2])) {
+					System.err.printf("Ignored invalid view (%s, %s, %s) in project file \"%s\"%n", view[0], view[1], view[2], file.getAbsolutePath());
+					view = null;
+				}
+				break;
+
+			case SECTION_AREAS:
+				areas = new Area[getVarInt(buffer)];
+				for (int i=0; i<areas.length; i++) {
+					int type = buffer.get();
+					String title   = getString(strings, getVarInt(buffer));
+					String onclick = getString(strings, getVarInt(buffer));
+					Area.Shape shape;
+					switch (type) {
+					case AREA_CIRCLE:
+						shape = new Area.Shape(new Point(getZigZag(buffer), getZigZag(buffer)), getZigZag(buffer));
+						break;
+					case AREA_RECT:
+						int x = getZigZag(buffer);
+						int y = getZigZag(buffer);
+						shape = new Area.Shape(new Point(x, y), new Point(x+getZigZag(buffer), y+getZigZag(buffer)));
+						break;
+					default:
+						throw new IOException(String.format("Unknown type %d of area %d", type, i));
+					}
+					areas[i] = new Area(shape, title, onclick);
+				}
+				break;
+			}
+
+			if (buffer.position()>end) throw new IOException(String.format("Corrupt section %d", tag));
+			buffer.position(end);
+		}
+
+		return new ProjectFile(imageFile, imageURL, view, areas);
+	}
+
+	private static String getString(String[] strings, int index) throws IOException {
+		if (index<0 || index>=strings.length) throw new IOException(String.format("Unknown string %d", index));
+		return strings[index];
+	}
+
+	static int getVarInt(ByteBuffer buffer) throws IOException {
+		int value = 0;
+		for (int shift=0; shift<35; shift+=7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F)<<shift;
+			if (b>=0) return value;
+		}
+		throw new IOException("Corrupt number");
+	}
+
+	static int getZigZag(ByteBuffer buffer) throws IOException {
+		int value = getVarInt(buffer);
+		return (value>>>1) ^ -(value & 1);
+	}
+}
@@ -0,0 +1,308 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
+
+/**
+ * Tiles of an image file, that are decoded on demand.<br>
+ * Only a small preview of the whole image is held permanently.
+ * Tiles of the painted regions are decoded by a background thread with {@link ImageReadParam#setSourceRegion(Rectangle)}
+ * and subsampling for the requested level. They are kept in a cache with LRU eviction, that is limited to a byte budget.
+ * Until a tile is decoded, the matching part of the preview is painted instead.
+ * If decoding fails, the pending requests are dropped, the first failure is reported to the error listener
+ * and the next request starts a new decoder.
+ */
+class RegionImage implements TileSource {
+	private static final int TILE_SIZE = ImagePyramid.TILE_SIZE;
+	private static final int MAX_PENDING_TILES = 256;
+
+	private final File file;
+	private final BufferedImage preview;
+	private final int width;
+	private final int height;
+	private final double previewScale; // full size pixels per preview pixel
+	private final int levelCount;
+	private final long cacheBudget;
+	private final Runnable tileAddedListener;
+	private final Consumer<IOException> errorListener;
+	private boolean isErrorReported;
+
+	private final LinkedHashMap<Long,BufferedImage> cache;
+	private long cacheBytes;
+	private final ArrayDeque<Long> pendingTiles; // most recent request last
+	private final HashSet<Long> pendingSet;
+	private Thread decoder;
+	private volatile ImageReader reader;
+	private volatile boolean isCanceled;
+
+	/**
+	 * {@code tileAddedListener} and {@code errorListener} are called in the event dispatch thread.
+	 */
+	RegionImage(File file, BufferedImage preview, int width, int height, long cacheBudget, Runnable tileAddedListener, Consumer<IOException> errorListener) {
+		this.file = file;
+		this.preview = preview;
+		this.width = width;
+		this.height = height;
+		this.previewScale = width / (double) preview.getWidth();
+		this.cacheBudget = cacheBudget;
+		this.tileAddedListener = tileAddedListener;
+		this.errorListener = errorListener;
+		isErrorReported = false;
+
+		int levelCount = 1;
+		while (Math.max(width,height) > (TILE_SIZE<<(levelCount-1)))
+			levelCount++;
+		this.levelCount = levelCount;
+
+		cache = new LinkedHashMap<>(64, 0.75f, true);
+		cacheBytes = 0;
+		pendingTiles = new ArrayDeque<>();
+		pendingSet = new HashSet<>();
+		decoder = null;
+		reader = null;
+		isCanceled = false;
+	}
+
+	@Override public int getWidth () { return width ; }
+	@Override public int getHeight() { return height; }
+
+	long getCacheBytes() {
+		synchronized (cache) { return cacheBytes; }
+	}
+
+	@Override public int getLevel(double pixelPerLength) {
+		int level = 0;
+		while (level<levelCount-1 && pixelPerLength*(2<<level) <= 1.0)
+			level++;
+		return level;
+	}
+
+	@Override public boolean isInMemory() {
+		return false;
+	}
+
+	@Override public void forEachTile(int level, double minX, double minY, double maxX, double maxY, TileAction action) {
+		if ((1<<level) >= previewScale) {
+			action.draw(preview, 0, 0, width, height);
+			return;
+		}
+
+		int tileSize = TILE_SIZE<<level;
+		int minTX = Math.max(0, (int) Math.floor(minX/tileSize));
+		int minTY = Math.max(0, (int) Math.floor(minY/tileSize));
+		int maxTX = Math.min((width +tileSize-1)/tileSize-1, (int) Math.floor(maxX/tileSize));
+		int maxTY = Math.min((height+tileSize-1)/tileSize-1, (int) Math.floor(maxY/tileSize));
+		for (int tY=minTY; tY<=maxTY; tY++)
+			for (int tX=minTX; tX<=maxTX; tX++) {
+				int x0 = tX*tileSize;
+				int y0 = tY*tileSize;
+				int x1 = Math.min(x0+tileSize, width );
+				int y1 = Math.min(y0+tileSize, height);
+				long key = getKey(level, tX, tY);
+				BufferedImage tile;
+				synchronized (cache) { tile = cache.get(key); }
+				if (tile!=null) {
+					action.draw(tile, x0, y0, x1, y1);
+				} else {
+					request(key);
+					drawFromPreview(x0, y0, x1, y1, action);
+				}
+			}
+	}
+
+	private void drawFromPreview(int x0, int y0, int x1, int y1, TileAction action) {
+		int px0 = (int) Math.floor(x0/previewScale);
+		int py0 = (int) Math.floor(y0/previewScale);
+		int px1 = Math.min(preview.getWidth (), (int) Math.ceil(x1/previewScale));
+		int py1 = Math.min(preview.getHeight(), (int) Math.ceil(y1/previewScale));
+		if (px1<=px0 || py1<=py0) return;
+		action.draw(preview.getSubimage(px0, py0, px1-px0, py1-py0),
+				(int) Math.round(px0*previewScale), (int) Math.round(py0*previewScale),
+				Math.min(width, (int) Math.round(px1*previewScale)), Math.min(height, (int) Math.round(py1*previewScale)));
+	}
+
+	private static long getKey(int level, int tX, int tY) {
+		return ((long) level<<56) | ((long) tY<<28) | tX;
+	}
+	private static int getLevel(long key) { return (int) (key>>>56); }
+	private static int getTileY(long key) { return (int) ((key>>>28) & 0xFFFFFFF); }
+	private static int getTileX(long key) { return (int) (key & 0xFFFFFFF); }
+
+	private void request(long key) {
+		synchronized (pendingTiles) {
+			if (isCanceled) return;
+			if (!pendingSet.add(key)) pendingTiles.remove(key);
+			pendingTiles.addLast(key);
+			if (pendingTiles.size()>MAX_PENDING_TILES)
+				pendingSet.remove(pendingTiles.removeFirst());
+			pendingTiles.notifyAll();
+
+			if (decoder==null) {
+				decoder = new Thread(this::decodeTiles, "RegionImage.Decoder");
+				decoder.setDaemon(true);
+				decoder.setPriority(Thread.MIN_PRIORITY);
+				decoder.start();
+			}
+		}
+	}
+
+	@Override public void cancel() {
+		isCanceled = true;
+		ImageReader reader = this.reader;
+		if (reader!=null) reader.abort();
+		synchronized (pendingTiles) {
+			pendingTiles.clear();
+			pendingSet.clear();
+			pendingTiles.notifyAll();
+		}
+		synchronized (cache) {
+			cache.clear();
+			cacheBytes = 0;
+		}
+	}
+
+	private void decodeTiles() {
+		try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+			if (in==null) throw new IOException("Can't open image stream");
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) throw new IOException("Unknown image format");
+			ImageReader reader = readers.next();
+			reader.setInput(in, false, true);
+			this.reader = reader;
+			try {
+				while (!isCanceled) {
+					HashSet<Long> keys = takeNextTiles();
+					if (keys==null) return;
+					decodeTiles(reader, keys);
+					if (!isCanceled && tileAddedListener!=null)
+						SwingUtilities.invokeLater(tileAddedListener);
+				}
+			} finally {
+				this.reader = null;
+				reader.dispose();
+			}
+		} catch (IOException e) {
+			if (!isCanceled) {
+				System.err.printf("IOException while decoding regions of image file \"%s\": %s%n", file.getAbsolutePath(), e.getMessage());
+				reportError(e);
+			}
+		} catch (InterruptedException e) {
+		} finally {
+			synchronized (pendingTiles) {
+				// after a failure, the tiles are requested again with the next paint
+				pendingTiles.clear();
+				pendingSet.clear();
+				decoder = null;
+			}
+		}
+	}
+
+	private void reportError(IOException e) {
+		synchronized (pendingTiles) {
+			if (isErrorReported) return;
+			isErrorReported = true;
+		}
+		if (errorListener!=null)
+			SwingUtilities.invokeLater(()->{ if (!isCanceled) errorListener.accept(e); });
+	}
+
+	/**
+	 * Takes the most recently requested tile and all other pending tiles of the same level,
+	 * as long as their bounding region doesn't exceed a quarter of the cache budget.
+	 * Decoding them together costs about the same as decoding a single tile for most formats.
+	 */
+	private HashSet<Long> takeNextTiles() throws InterruptedException {
+		synchronized (pendingTiles) {
+			while (pendingTiles.isEmpty() && !isCanceled)
+				pendingTiles.wait();
+			if (isCanceled) return null;
+
+			long first = pendingTiles.removeLast();
+			pendingSet.remove(first);
+			HashSet<Long> keys = new HashSet<>();
+			keys.add(first);
+
+			int level = getLevel(first);
+			int minTX = getTileX(first), maxTX = minTX;
+			int minTY = getTileY(first), maxTY = minTY;
+			for (Iterator<Long> it = pendingTiles.descendingIterator(); it.hasNext();) {
+				long key = it.next();
+				if (getLevel(key)!=level) continue;
+				int tX = getTileX(key);
+				int tY = getTileY(key);
+				long regionBytes = 4L*TILE_SIZE*TILE_SIZE * (Math.max(maxTX,tX)-Math.min(minTX,tX)+1) * (Math.max(maxTY,tY)-Math.min(minTY,tY)+1);
+				if (regionBytes > cacheBudget/4) continue;
+				minTX = Math.min(minTX,tX); maxTX = Math.max(maxTX,tX);
+				minTY = Math.min(minTY,tY); maxTY = Math.max(maxTY,tY);
+				keys.add(key);
+				pendingSet.remove(key);
+				it.remove();
+			}
+			return keys;
+		}
+	}
+
+	private void decodeTiles(ImageReader reader, HashSet<Long> keys) throws IOException {
+		int level = -1;
+		int minTX = Integer.MAX_VALUE, maxTX = -1;
+		int minTY = Integer.MAX_VALUE, maxTY = -1;
+		synchronized (cache) {
+			for (Iterator<Long> it = keys.iterator(); it.hasNext();) {
+				long key = it.next();
+				if (cache.containsKey(key)) { it.remove(); continue; }
+				level = getLevel(key);
+				minTX = Math.min(minTX, getTileX(key)); maxTX = Math.max(maxTX, getTileX(key));
+				minTY = Math.min(minTY, getTileY(key)); maxTY = Math.max(maxTY, getTileY(key));
+			}
+		}
+		if (keys.isEmpty()) return;
+
+		int tileSize = TILE_SIZE<<level;
+		int x0 = minTX*tileSize;
+		int y0 = minTY*tileSize;
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setSourceRegion(new Rectangle(x0, y0, Math.min((maxTX+1)*tileSize, width)-x0, Math.min((maxTY+1)*tileSize, height)-y0));
+		param.setSourceSubsampling(1<<level, 1<<level, 0, 0);
+		BufferedImage region = reader.read(0, param);
+		if (isCanceled || region==null) return;
+
+		for (long key : keys) {
+			int sx = (getTileX(key)-minTX)*TILE_SIZE;
+			int sy = (getTileY(key)-minTY)*TILE_SIZE;
+			int w = Math.min(TILE_SIZE, region.getWidth ()-sx);
+			int h = Math.min(TILE_SIZE, region.getHeight()-sy);
+			if (w<=0 || h<=0) continue;
+			WritableRaster raster = region.copyData(region.getRaster().createCompatibleWritableRaster(sx, sy, w, h));
+			put(key, new BufferedImage(region.getColorModel(), raster.createWritableTranslatedChild(0, 0), region.isAlphaPremultiplied(), null));
+		}
+	}
+
+	private void put(long key, BufferedImage tile) {
+		synchronized (cache) {
+			if (isCanceled) return;
+			BufferedImage old = cache.put(key, tile);
+			if (old!=null) cacheBytes -= MapImageCache.getByteSize(old);
+			cacheBytes += MapImageCache.getByteSize(tile);
+			Iterator<Map.Entry<Long,BufferedImage>> it = cache.entrySet().iterator();
+			while (cacheBytes>cacheBudget && cache.size()>1) {
+				cacheBytes -= MapImageCache.getByteSize(it.next().getValue());
+				it.remove();
+			}
+		}
+	}
+}
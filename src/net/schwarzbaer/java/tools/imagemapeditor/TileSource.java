@@ -0,0 +1,39 @@
+package net.schwarzbaer.java.tools.imagemapeditor;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Source of the tiles, that {@link EditorView} paints as map image.<br>
+ * All coordinates are in pixels of the full resolution image.
+ */
+interface TileSource {
+	int getWidth();
+	int getHeight();
+
+	/**
+	 * Returns the level, that should be used for a scale of {@code pixelPerLength} screen pixels per image pixel.
+	 * Level {@code n} has a resolution of 1/2^n of the full resolution.
+	 */
+	int getLevel(double pixelPerLength);
+
+	/**
+	 * Iterates all tiles of {@code level}, that intersect the image area [{@code minX},{@code maxX}] x [{@code minY},{@code maxY}],
+	 * and gives them together with the image area they cover to {@code action}.
+	 */
+	void forEachTile(int level, double minX, double minY, double maxX, double maxY, TileAction action);
+
+	/**
+	 * Returns {@code true}, if all tiles of the available levels are held in memory.
+	 * Otherwise {@link #forEachTile(int, double, double, double, double, TileAction) forEachTile} may give placeholders and decode the tiles later.
+	 */
+	boolean isInMemory();
+
+	/**
+	 * Stops all background work. The source isn't used anymore afterwards.
+	 */
+	void cancel();
+
+	interface TileAction {
+		void draw(BufferedImage tile, int x0, int y0, int x1, int y1);
+	}
+}